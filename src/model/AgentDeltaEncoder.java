@@ -0,0 +1,94 @@
+package model;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.BitSet;
+
+/*
+ * Keeps track of each agent's results from the last sample of a replicate, so that only the values that changed have to be written.
+ * The first sample (and every so many samples after that, if there are keyframes) is written out in full to the agent results file,
+ * and the rest just go to the delta file as one row per change: the agent's number, the result that changed, and its new value.
+ * New agents have all their values written (starting with Agent), and agents that are gone are written as a blank Agent.
+ * Every sample ends with a row without an agent number that says whether it was a Keyframe or a Delta and how many agents there were.
+ * AgentDeltaReader puts the full samples back together.
+ */
+public class AgentDeltaEncoder {
+
+	// what each sample is marked as
+	public static final String KEYFRAME = "Keyframe", DELTA = "Delta";
+
+	// the names of the values for each agent (Agent followed by the agent results)
+	public final String[] fields;
+	// how often to write out a full sample (0 just writes the first one)
+	public final int keyframe;
+	// the last values written for each agent (by its number), without separators
+	private final ArrayList<String[]> last = new ArrayList<String[]>();
+	// which agents have been seen in this sample
+	private final BitSet seen = new BitSet();
+	// number of samples so far, and whether this one is a keyframe
+	private int samples = 0;
+	private boolean full;
+	// the rows of changes
+	private final RowEncoder delta;
+
+	public AgentDeltaEncoder(String[] agentres, int keyframe, char sep, int precision) {
+		this.fields = new String[agentres.length + 1];
+		this.fields[0] = "Agent";
+		System.arraycopy(agentres, 0, this.fields, 1, agentres.length);
+		this.keyframe = keyframe;
+		this.delta = new RowEncoder(sep, precision);
+	}
+
+	/*
+	 * Starts a new sample, and returns whether it's a keyframe that should be written out in full
+	 */
+	public boolean startSample() {
+		this.full = this.samples == 0 || (this.keyframe > 0 && this.samples%this.keyframe == 0);
+		this.samples++;
+		this.seen.clear();
+		return this.full;
+	}
+
+	/*
+	 * Compares an agent's row with its last values and writes the ones that changed (unless this is a keyframe).
+	 * The values in the row are between the positions in bounds: the agent itself starts at bounds[0],
+	 * and value k runs up to the separator just before bounds[k+1] (everything before bounds[0] starts each row of changes).
+	 */
+	public void record(RowEncoder row, int[] bounds, int o, Writer writer) throws IOException {
+		this.seen.set(o);
+		while(this.last.size() <= o) {
+			this.last.add(null);
+		}
+		String[] prev = this.last.get(o);
+		if(prev == null) {
+			prev = new String[this.fields.length];
+			this.last.set(o, prev);
+		}
+		for(int k = 0; k < this.fields.length; k++) {
+			int from = bounds[k];
+			int to = bounds[k+1] - 1;
+			if(row.matches(from, to, prev[k])) continue;
+			prev[k] = row.substring(from, to);
+			if(!this.full) {
+				this.delta.clear().append(row, 0, bounds[0]).add(this.fields[k]).append(row, from, to + 1).append('\n').writeTo(writer);
+			}
+		}
+	}
+
+	/*
+	 * Ends the sample, writing out the agents that are gone and the row marking the end of the sample
+	 */
+	public void finishSample(int s, long step, String params, Writer writer) throws IOException {
+		for(int o = 0; o < this.last.size(); o++) {
+			if(this.last.get(o) != null && !this.seen.get(o)) {
+				this.last.set(o, null);
+				if(!this.full) {
+					this.delta.clear().add(s).add(step).append(params).add(o).add(this.fields[0]).append(this.delta.sep).append('\n').writeTo(writer);
+				}
+			}
+		}
+		this.delta.clear().add(s).add(step).append(params).append(this.delta.sep).add(this.full ? KEYFRAME : DELTA)
+			.add(this.seen.cardinality()).append('\n').writeTo(writer);
+	}
+}
@@ -0,0 +1,292 @@
+package model;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.GZIPInputStream;
+
+/*
+ * Puts the agent results written with agentdelta back together (see AgentDeltaEncoder), one sample at a time,
+ * from the keyframes in the agent results file and the changes in the delta file (either can be gzipped, but columnar files
+ * need to be converted back to text with ColumnarReader first).
+ * Can also be run on its own to write out every sample in full, just like the agent results file would have been without deltas:
+ * 	java model.AgentDeltaReader <agent results file> <agent delta file> [<output file>]
+ * (with no output file, it writes to the agent results file name with .full.txt on the end)
+ */
+public class AgentDeltaReader implements Closeable {
+
+	// the separator between values
+	public final char sep;
+	// the comment lines and column names at the top of the agent results file
+	public final String header;
+	// the names of the values for each agent (Agent followed by the agent results)
+	public final String[] fields;
+	// the number of parameter columns
+	private final int nparams;
+	// which value each field name is
+	private final Map<String, Integer> fieldindex = new HashMap<String, Integer>();
+	private final BufferedReader keyframes;
+	private final BufferedReader deltas;
+	// the next line of the delta file, if it's been read already
+	private String pending;
+	// the current sample: its seed, parameter values (with separators, the same as in the files), and step
+	private String seed;
+	private String params;
+	private long step = -1;
+	// and the agents in it (by their number)
+	private final TreeMap<Integer, String[]> agents = new TreeMap<Integer, String[]>();
+
+	/*
+	 * Opens both files and reads their headers
+	 */
+	public AgentDeltaReader(String agentfile, String deltafile) throws IOException {
+		this.keyframes = open(agentfile);
+		this.deltas = open(deltafile);
+		StringBuilder head = new StringBuilder();
+		String agentcols = readHeader(this.keyframes, head);
+		String deltacols = readHeader(this.deltas, new StringBuilder());
+		if(agentcols == null || deltacols == null) {
+			close();
+			throw new IOException("Missing the header in " + (agentcols == null ? agentfile : deltafile));
+		}
+		this.header = head.toString();
+		this.sep = agentcols.charAt(agentcols.length() - 1);
+		String[] acols = split(agentcols);
+		// the delta file has the seed, timestep, parameters, and then AgentID, Field, and Value
+		this.nparams = split(deltacols).length - 5;
+		// and the agent file has the seed, timestep, parameters, AgentID, and then the values
+		this.fields = new String[acols.length - 3 - this.nparams];
+		for(int k = 0; k < this.fields.length; k++) {
+			this.fields[k] = acols[3 + this.nparams + k];
+			this.fieldindex.put(this.fields[k], k);
+		}
+	}
+
+	public String seed() {
+		return this.seed;
+	}
+
+	public String params() {
+		return this.params;
+	}
+
+	public long step() {
+		return this.step;
+	}
+
+	/*
+	 * The agents in the current sample, in order by their number (each with its Agent and then its results)
+	 */
+	public Map<Integer, String[]> agents() {
+		return Collections.unmodifiableMap(this.agents);
+	}
+
+	/*
+	 * Moves on to the next sample (returns false once there aren't any more)
+	 */
+	public boolean next() throws IOException {
+		String line;
+		while((line = readDelta()) != null) {
+			String[] cells = split(line);
+			String p = join(cells, 2, 2 + this.nparams);
+			// a new replicate starts from scratch
+			if(!cells[0].equals(this.seed) || !p.equals(this.params)) {
+				this.agents.clear();
+				this.seed = cells[0];
+				this.params = p;
+			}
+			this.step = Long.parseLong(cells[1]);
+			String id = cells[2 + this.nparams];
+			String field = cells[3 + this.nparams];
+			String val = cells[4 + this.nparams];
+			if(id.length() == 0) {
+				// this is the end of the sample, and if it's a keyframe, the whole thing is in the agent results file
+				if(field.equals(AgentDeltaEncoder.KEYFRAME)) {
+					readKeyframe(Integer.parseInt(val));
+				}
+				return true;
+			}
+			Integer k = this.fieldindex.get(field);
+			if(k == null) throw new IOException("Unknown agent result in the delta file: " + field);
+			int o = Integer.parseInt(id);
+			if(k == 0 && val.length() == 0) {
+				// the agent is gone
+				this.agents.remove(o);
+			} else {
+				String[] vals = this.agents.get(o);
+				if(vals == null) {
+					vals = new String[this.fields.length];
+					this.agents.put(o, vals);
+				}
+				vals[k] = val;
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Moves on to the last sample of a replicate at or before a step (returns false if there isn't one)
+	 */
+	public boolean seek(String seed, String params, long step) throws IOException {
+		boolean found = false;
+		while(true) {
+			String line = readDelta();
+			if(line == null) return found;
+			this.pending = line;
+			String[] cells = split(line);
+			boolean same = cells[0].equals(seed) && join(cells, 2, 2 + this.nparams).equals(params);
+			// stop once it's moved past the step (or on to another replicate)
+			if(found && (!same || Long.parseLong(cells[1]) > step)) return true;
+			if(!next()) return found;
+			if(same && this.step <= step) found = true;
+		}
+	}
+
+	/*
+	 * Writes out the current sample in full, in the same layout as the agent results file
+	 */
+	public void writeSample(Writer out) throws IOException {
+		for(Map.Entry<Integer, String[]> e : this.agents.entrySet()) {
+			out.write(this.seed);
+			out.write(this.sep);
+			out.write(Long.toString(this.step));
+			out.write(this.sep);
+			out.write(this.params);
+			out.write(Integer.toString(e.getKey()));
+			out.write(this.sep);
+			for(String v : e.getValue()) {
+				out.write(v);
+				out.write(this.sep);
+			}
+			out.write('\n');
+		}
+	}
+
+	/*
+	 * Writes out every sample in full, with the header from the agent results file
+	 */
+	public void toText(Writer out) throws IOException {
+		out.write(this.header);
+		while(next()) {
+			writeSample(out);
+		}
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		try {
+			this.keyframes.close();
+		} finally {
+			this.deltas.close();
+		}
+	}
+
+	/*
+	 * Writes out every sample in full
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.out.println("Usage: java model.AgentDeltaReader <agent results file> <agent delta file> [<output file>]");
+			return;
+		}
+		String out = args.length > 2 ? args[2] : args[0].replaceAll("\\.txt(\\.gz)?$", "") + ".full.txt";
+		try(AgentDeltaReader reader = new AgentDeltaReader(args[0], args[1]);
+				Writer writer = out.equals("-") ? new OutputStreamWriter(System.out) : new BufferedWriter(new FileWriter(out))) {
+			reader.toText(writer);
+		}
+	}
+
+	/*
+	 * Replaces the agents with the next keyframe from the agent results file
+	 */
+	private void readKeyframe(int n) throws IOException {
+		this.agents.clear();
+		for(int i = 0; i < n; i++) {
+			String line = this.keyframes.readLine();
+			if(line == null) throw new IOException("The agent results file ends before the keyframe at step " + this.step);
+			String[] cells = split(line);
+			String[] vals = new String[this.fields.length];
+			System.arraycopy(cells, 3 + this.nparams, vals, 0, vals.length);
+			this.agents.put(Integer.parseInt(cells[2 + this.nparams]), vals);
+		}
+	}
+
+	private String readDelta() throws IOException {
+		if(this.pending != null) {
+			String line = this.pending;
+			this.pending = null;
+			return line;
+		}
+		return this.deltas.readLine();
+	}
+
+	private String[] split(String line) {
+		return split(line, this.sep);
+	}
+
+	private String join(String[] cells, int from, int to) {
+		return join(cells, from, to, this.sep);
+	}
+
+	/*
+	 * Splits a row into its values (each one is followed by the separator, including the last)
+	 */
+	static String[] split(String line, char sep) {
+		int n = 0;
+		for(int i = 0; i < line.length(); i++) {
+			if(line.charAt(i) == sep) n++;
+		}
+		String[] cells = new String[n];
+		int start = 0;
+		for(int c = 0; c < cells.length; c++) {
+			int end = line.indexOf(sep, start);
+			cells[c] = line.substring(start, end);
+			start = end + 1;
+		}
+		return cells;
+	}
+
+	/*
+	 * Puts some of the values of a row back together (with a separator after each)
+	 */
+	static String join(String[] cells, int from, int to, char sep) {
+		StringBuilder b = new StringBuilder();
+		for(int c = from; c < to; c++) {
+			b.append(cells[c]).append(sep);
+		}
+		return b.toString();
+	}
+
+	/*
+	 * Reads the comment lines at the top of a file up through the column names (which it returns)
+	 */
+	static String readHeader(BufferedReader in, StringBuilder head) throws IOException {
+		String line;
+		while((line = in.readLine()) != null) {
+			head.append(line).append('\n');
+			if(line.length() > 0 && line.charAt(0) != '%') return line;
+		}
+		return null;
+	}
+
+	/*
+	 * Opens a text results file to read (gzipped if it ends in .gz)
+	 */
+	static BufferedReader open(String fname) throws IOException {
+		if(fname.endsWith(".gz")) {
+			return new BufferedReader(new InputStreamReader(new GZIPInputStream(new FileInputStream(fname), 1 << 16)), 1 << 16);
+		}
+		return new BufferedReader(new FileReader(fname), 1 << 16);
+	}
+}
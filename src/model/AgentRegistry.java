@@ -0,0 +1,118 @@
+package model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+
+import sim.engine.IterativeRepeat;
+
+/*
+ * Keeps track of the agents to get results from, so the schedule doesn't have to be copied every time agent results are written.
+ * Agents come from two places: anything scheduled to repeat (added when it's scheduled, and dropped once it's been stopped),
+ * and the model's list of agents (which is checked again at every sample, since it can change at any time).
+ * An agent that's in both places is only kept once, and each agent gets an ID the first time it shows up, which it keeps for as long as it's around
+ * (if it leaves and comes back later, it gets a new one).
+ */
+public class AgentRegistry implements Serializable {
+
+	// the agents in the order they showed up (which is also the order of their IDs)
+	private final ArrayList<Entry> entries = new ArrayList<Entry>();
+	// and the same agents by identity
+	private final IdentityHashMap<Object, Entry> index = new IdentityHashMap<Object, Entry>();
+	// the next ID to give out
+	private int nextid = 0;
+	// the number of samples so far (to tell which agents from the list are still in it)
+	private long sample = 0;
+
+	/*
+	 * Adds an agent that's been scheduled to repeat
+	 */
+	public void addScheduled(IterativeRepeat repeat) {
+		if(repeat == null || repeat.getSteppable() == null) return;
+		register(repeat.getSteppable()).repeat = repeat;
+	}
+
+	/*
+	 * Gets ready to go through the agents for a sample: adds anything new on the model's list of agents,
+	 * and drops anything that's no longer on the list or on the schedule
+	 */
+	public void startSample(Object[] listed) {
+		this.sample++;
+		for(Object a : listed) {
+			if(a != null) register(a).sample = this.sample;
+		}
+		int kept = 0;
+		for(int i = 0; i < this.entries.size(); i++) {
+			Entry e = this.entries.get(i);
+			if(e.sample == this.sample || (e.repeat != null && e.repeat.getSteppable() == e.agent)) {
+				this.entries.set(kept++, e);
+			} else {
+				this.index.remove(e.agent);
+			}
+		}
+		while(this.entries.size() > kept) {
+			this.entries.remove(this.entries.size() - 1);
+		}
+	}
+
+	public int size() {
+		return this.entries.size();
+	}
+
+	/*
+	 * The i-th agent (in order by ID)
+	 */
+	public Object get(int i) {
+		return this.entries.get(i).agent;
+	}
+
+	/*
+	 * The ID of the i-th agent
+	 */
+	public int id(int i) {
+		return this.entries.get(i).id;
+	}
+
+	/*
+	 * The ID of an agent on the model's list (which gets one if it doesn't have one yet)
+	 */
+	public int idOf(Object agent) {
+		Entry e = register(agent);
+		e.sample = Math.max(e.sample, this.sample);
+		return e.id;
+	}
+
+	/*
+	 * Forgets all the agents and starts the IDs over (e.g. when the schedule is reset for a new replicate)
+	 */
+	public void clear() {
+		this.entries.clear();
+		this.index.clear();
+		this.nextid = 0;
+	}
+
+	private Entry register(Object agent) {
+		Entry e = this.index.get(agent);
+		if(e == null) {
+			e = new Entry(agent, this.nextid++);
+			this.index.put(agent, e);
+			this.entries.add(e);
+		}
+		return e;
+	}
+
+	/*
+	 * An agent, its ID, how it was scheduled (if it was), and the last sample it was on the model's list
+	 */
+	private static class Entry implements Serializable {
+		final Object agent;
+		final int id;
+		IterativeRepeat repeat;
+		long sample = 0;
+
+		Entry(Object agent, int id) {
+			this.agent = agent;
+			this.id = id;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+
+/*
+ * Picks a panel of agents to write results for, so big populations don't have to be written out in full.
+ * Each agent is either in or out of the panel for good, decided the first time it shows up, so the same agents are followed the whole way through.
+ * Agents are picked by a hash of the run's seed and their ID, so the panel only depends on the seed (not on threads or the order things ran in):
+ * with a fraction, each agent is in if its hash is below the fraction, and with a number of agents, the ones with the lowest hashes are picked
+ * until there are that many in the panel (with new ones added to fill in for agents that have left).
+ * If there are strata (the values of one of the agents' results), the fraction or number of agents is for each stratum.
+ */
+public class AgentSampler {
+
+	// the fraction of agents to pick (if picking a fraction)
+	public final double fraction;
+	// the number of agents to keep in the panel (if picking a number of agents instead)
+	public final int size;
+	// the seed the hashes are based on
+	private final long seed;
+	// the highest ID that's been decided on so far (IDs go up as new agents show up)
+	private int lastid = -1;
+	// which agents are in the panel
+	private final BitSet included = new BitSet();
+	// the stratum of each agent in the panel (by ID), and the index of each stratum
+	private int[] stratum = new int[64];
+	private final HashMap<String, Integer> strata = new HashMap<String, Integer>();
+	// agents that showed up since the last sample
+	private final ArrayList<Candidate> candidates = new ArrayList<Candidate>();
+
+	/*
+	 * Parses the agentsample setting: a fraction below 1, or a whole number of agents (throws a NumberFormatException otherwise)
+	 */
+	public AgentSampler(String setting, long seed) {
+		double val = Double.parseDouble(setting.trim());
+		if(!(val > 0) || (val >= 1 && val != Math.rint(val)) || val > Integer.MAX_VALUE) throw new NumberFormatException(setting);
+		this.fraction = val < 1 ? val : 0;
+		this.size = val < 1 ? 0 : (int) val;
+		this.seed = seed;
+	}
+
+	/*
+	 * Decides on any agents that have shown up since the last sample (strata can be null if there aren't any)
+	 */
+	public void startSample(AgentRegistry registry, SimDataCollection model, ResultExtractor strata) {
+		this.candidates.clear();
+		// the number of agents in the panel that are still around, in each stratum
+		int[] live = new int[this.strata.size() + 1];
+		int newest = this.lastid;
+		for(int i = 0; i < registry.size(); i++) {
+			int id = registry.id(i);
+			if(id <= this.lastid) {
+				if(this.size > 0 && this.included.get(id)) live[this.stratum[id]]++;
+				continue;
+			}
+			newest = Math.max(newest, id);
+			Object a = registry.get(i);
+			String s = strata == null ? "" : strata.get(model, 0, a);
+			Integer k = this.strata.get(s);
+			if(k == null) {
+				k = this.strata.size();
+				this.strata.put(s, k);
+			}
+			this.candidates.add(new Candidate(id, k, hash(id)));
+		}
+		this.lastid = newest;
+		if(live.length < this.strata.size()) live = Arrays.copyOf(live, this.strata.size());
+		// with a fixed number, the lowest hashes fill up whatever room is left in each stratum
+		if(this.size > 0) this.candidates.sort((x, y) -> Double.compare(x.hash, y.hash));
+		for(Candidate c : this.candidates) {
+			boolean in;
+			if(this.size > 0) {
+				in = live[c.stratum] < this.size;
+				if(in) live[c.stratum]++;
+			} else {
+				in = c.hash < this.fraction;
+			}
+			if(in) {
+				this.included.set(c.id);
+				if(c.id >= this.stratum.length) this.stratum = Arrays.copyOf(this.stratum, Math.max(this.stratum.length*2, c.id + 1));
+				this.stratum[c.id] = c.stratum;
+			}
+		}
+	}
+
+	/*
+	 * Whether the agent with an ID is in the panel
+	 */
+	public boolean includes(int id) {
+		return id >= 0 && this.included.get(id);
+	}
+
+	/*
+	 * A number between 0 and 1 that only depends on the seed and the ID (SplitMix64)
+	 */
+	private double hash(int id) {
+		long z = this.seed*0x9E3779B97F4A7C15L + id + 0x632BE59BD9B4E019L;
+		z = (z ^ (z >>> 30))*0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27))*0x94D049BB133111EBL;
+		z = z ^ (z >>> 31);
+		return (z >>> 11)*0x1.0p-53;
+	}
+
+	private static class Candidate {
+		final int id;
+		final int stratum;
+		final double hash;
+
+		Candidate(int id, int stratum, double hash) {
+			this.id = id;
+			this.stratum = stratum;
+			this.hash = hash;
+		}
+	}
+}
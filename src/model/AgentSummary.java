@@ -0,0 +1,91 @@
+package model;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Summary statistics of each agent result at each timestep it was collected,
+ * accumulated over all the agents and then merged over all the replicates of a combination of parameter values,
+ * so that only one row per timestep and result has to be written instead of one per agent.
+ * Keeps the count, mean, variance, min, and max (see RunningStats) and a quantile sketch (see QuantileSketch) for each.
+ */
+public class AgentSummary {
+
+	// names of the results being summarized
+	public final String[] fields;
+	// statistics for each timestep, for each result
+	private final TreeMap<Long, RunningStats[]> stats = new TreeMap<Long, RunningStats[]>();
+	private final TreeMap<Long, QuantileSketch[]> sketches = new TreeMap<Long, QuantileSketch[]>();
+	// the statistics for the timestep values are being added to
+	private RunningStats[] current;
+	private QuantileSketch[] currentsketch;
+	// number of replicates merged in
+	private int reps = 0;
+
+	public AgentSummary(String[] fields) {
+		this.fields = fields;
+	}
+
+	/*
+	 * Gets ready to add the values of each result for all the agents at a timestep
+	 */
+	public void startStep(long step) {
+		if(!this.stats.containsKey(step)) {
+			RunningStats[] s = new RunningStats[this.fields.length];
+			QuantileSketch[] q = new QuantileSketch[this.fields.length];
+			for(int f = 0; f < this.fields.length; f++) {
+				s[f] = new RunningStats();
+				q[f] = new QuantileSketch();
+			}
+			this.stats.put(step, s);
+			this.sketches.put(step, q);
+		}
+		this.current = this.stats.get(step);
+		this.currentsketch = this.sketches.get(step);
+	}
+
+	/*
+	 * Adds one agent's value of a result (anything that isn't a number is left out)
+	 */
+	public void add(int field, double x) {
+		if(Double.isNaN(x)) return;
+		this.current[field].add(x);
+		this.currentsketch[field].add(x);
+	}
+
+	/*
+	 * Merges in the summary of another replicate with the same parameter values
+	 */
+	public void merge(AgentSummary other) {
+		for(Map.Entry<Long, RunningStats[]> e : other.stats.entrySet()) {
+			startStep(e.getKey());
+			QuantileSketch[] q = other.sketches.get(e.getKey());
+			for(int f = 0; f < this.fields.length; f++) {
+				this.current[f].merge(e.getValue()[f]);
+				this.currentsketch[f].merge(q[f]);
+			}
+		}
+		this.reps += Math.max(other.reps, 1);
+	}
+
+	/*
+	 * Writes one row for each timestep and result: number of replicates, timestep, parameter values, result,
+	 * count, mean, variance, min, max, and then the requested quantiles
+	 */
+	public void write(Writer writer, RowEncoder row, String params, double[] quantiles) throws IOException {
+		for(Map.Entry<Long, RunningStats[]> e : this.stats.entrySet()) {
+			QuantileSketch[] q = this.sketches.get(e.getKey());
+			for(int f = 0; f < this.fields.length; f++) {
+				RunningStats s = e.getValue()[f];
+				row.clear().add(this.reps).add(e.getKey()).append(params).add(this.fields[f])
+						.add(s.count()).add(s.mean()).add(s.variance()).add(s.min()).add(s.max());
+				for(double p : quantiles) {
+					row.add(q[f].quantile(p));
+				}
+				row.append('\n').writeTo(writer);
+			}
+		}
+	}
+}
@@ -0,0 +1,216 @@
+package model;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.HashSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+
+/*
+ * Moves writing to disk off of the simulation thread: writers opened through the pipeline collect what's written to them
+ * into batches, and a single background thread writes the batches out to the actual files in the order they came in.
+ * The queue of batches is either bounded (and the simulation waits when it's full) or allowed to grow as much as it needs to.
+ * If writing fails, the next write, flush, or close on any of the pipeline's writers throws an exception saying why,
+ * instead of the simulation carrying on without its results (the other files still get everything written to them before that).
+ */
+public class AsyncWritePipeline {
+
+	// characters in each batch
+	public static final int BATCH = 1 << 16;
+	// what the writer thread does with each item on the queue
+	private static final int WRITE = 0, FLUSH = 1, CLOSE = 2, STOP = 3;
+
+	// batches waiting to be written
+	private final BlockingQueue<Batch> queue;
+	// buffers that have already been written out and can be filled again
+	private final ConcurrentLinkedQueue<char[]> free = new ConcurrentLinkedQueue<char[]>();
+	// the thread doing the writing
+	private final Thread thread;
+	// the first thing that went wrong (if anything)
+	private volatile IOException error;
+
+	/*
+	 * Starts a pipeline with room for the given number of batches (or as many as it needs if grow is true)
+	 */
+	public AsyncWritePipeline(int capacity, boolean grow) {
+		this.queue = grow ? new LinkedBlockingQueue<Batch>() : new ArrayBlockingQueue<Batch>(Math.max(capacity, 1));
+		this.thread = new Thread(this::drain, "results writer");
+		this.thread.setDaemon(true);
+		this.thread.start();
+	}
+
+	/*
+	 * Opens a writer that passes everything along to the target through the pipeline
+	 */
+	public Writer open(Writer target) {
+		return new Channel(target);
+	}
+
+	/*
+	 * Waits for everything that's been queued to be written and stops the writer thread
+	 * (throws an IOException if anything failed to write)
+	 */
+	public void shutdown() throws IOException {
+		if(this.thread.isAlive()) {
+			put(new Batch(null, null, 0, STOP, null));
+			try {
+				this.thread.join();
+			} catch(InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while finishing writing results", e);
+			}
+		}
+		check();
+	}
+
+	/*
+	 * Writes batches out in order until told to stop
+	 */
+	private void drain() {
+		// the files that have failed
+		HashSet<Writer> broken = new HashSet<Writer>();
+		while(true) {
+			Batch b;
+			try {
+				b = this.queue.take();
+			} catch(InterruptedException e) {
+				return;
+			}
+			if(b.op == STOP) return;
+			// once a file has failed, nothing else gets written to it (but the rest still get what was written to them before the run stops),
+			// and anyone waiting is still let go
+			if(!broken.contains(b.target)) {
+				try {
+					switch(b.op) {
+					case WRITE:
+						b.target.write(b.chars, 0, b.len);
+						break;
+					case FLUSH:
+						b.target.flush();
+						break;
+					case CLOSE:
+						b.target.close();
+						break;
+					}
+				} catch(Throwable e) {
+					// (anything else a writer throws is a failure to write too, and the thread has to keep going so no one is left waiting)
+					broken.add(b.target);
+					if(this.error == null) this.error = e instanceof IOException ? (IOException) e : new IOException(e.toString(), e);
+				}
+			}
+			if(b.chars != null) this.free.add(b.chars);
+			if(b.done != null) b.done.countDown();
+		}
+	}
+
+	private void put(Batch b) throws IOException {
+		try {
+			this.queue.put(b);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing results", e);
+		}
+	}
+
+	/*
+	 * Queues something for the writer thread and waits until it's done
+	 */
+	private void putAndWait(Writer target, int op) throws IOException {
+		CountDownLatch done = new CountDownLatch(1);
+		put(new Batch(target, null, 0, op, done));
+		try {
+			done.await();
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while writing results", e);
+		}
+	}
+
+	/*
+	 * Throws an IOException if anything has failed to write (without waiting for what's still queued)
+	 */
+	public void check() throws IOException {
+		if(this.error != null) throw new IOException(this.error.getMessage(), this.error);
+	}
+
+	/*
+	 * A batch of characters to write to a target (or something else to do to it)
+	 */
+	private static class Batch {
+		final Writer target;
+		final char[] chars;
+		final int len;
+		final int op;
+		final CountDownLatch done;
+
+		Batch(Writer target, char[] chars, int len, int op, CountDownLatch done) {
+			this.target = target;
+			this.chars = chars;
+			this.len = len;
+			this.op = op;
+			this.done = done;
+		}
+	}
+
+	/*
+	 * One writer's way into the pipeline, which fills up a batch at a time
+	 */
+	private class Channel extends Writer {
+		private final Writer target;
+		private char[] buf;
+		private int len = 0;
+		private boolean closed = false;
+
+		Channel(Writer target) {
+			this.target = target;
+		}
+
+		public void write(char[] cbuf, int off, int n) throws IOException {
+			if(this.closed) throw new IOException("Writer already closed");
+			check();
+			while(n > 0) {
+				if(this.buf == null) {
+					this.buf = free.poll();
+					if(this.buf == null) this.buf = new char[BATCH];
+				}
+				int k = Math.min(n, this.buf.length - this.len);
+				System.arraycopy(cbuf, off, this.buf, this.len, k);
+				this.len += k;
+				off += k;
+				n -= k;
+				if(this.len == this.buf.length) send();
+			}
+		}
+
+		/*
+		 * Hands the current batch off to the writer thread
+		 */
+		private void send() throws IOException {
+			if(this.len == 0) return;
+			put(new Batch(this.target, this.buf, this.len, WRITE, null));
+			this.buf = null;
+			this.len = 0;
+		}
+
+		/*
+		 * Waits until everything written so far is actually in the file
+		 */
+		public void flush() throws IOException {
+			if(this.closed) return;
+			send();
+			putAndWait(this.target, FLUSH);
+			check();
+		}
+
+		public void close() throws IOException {
+			if(this.closed) return;
+			this.closed = true;
+			send();
+			putAndWait(this.target, CLOSE);
+			check();
+		}
+	}
+}
@@ -0,0 +1,208 @@
+package model;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/*
+ * Writes text to a file through a FileChannel with a big direct buffer, encoding it straight into the buffer,
+ * instead of going through FileWriter (which encodes through a small buffer of its own and writes far more often).
+ * ASCII (which is almost everything in a results file) is copied over a byte at a time, UTF-8 is encoded by hand,
+ * and anything else goes through an encoder for the platform's charset, so the file comes out the same as it would with FileWriter
+ * (in a charset that doesn't write ASCII as is, like UTF-16, everything goes through the encoder).
+ */
+public class ChannelWriter extends Writer {
+
+	// default size of the buffer
+	public static final int BUFFER = 1 << 20;
+
+	private final FileChannel channel;
+	private final ByteBuffer buf;
+	// whether the platform charset is UTF-8 (otherwise non-ASCII characters go through the encoder),
+	// and whether it writes ASCII as is (otherwise everything goes through the encoder)
+	private final boolean utf8;
+	private final boolean ascii;
+	private final CharsetEncoder encoder;
+	// the first half of a surrogate pair, if the last write ended in the middle of one
+	private char high = 0;
+	private boolean closed = false;
+
+	/*
+	 * Opens a file to write to (adding on to the end if append is true)
+	 */
+	public ChannelWriter(String fname, boolean append) throws IOException {
+		this(fname, append, BUFFER);
+	}
+
+	public ChannelWriter(String fname, boolean append, int size) throws IOException {
+		this.channel = append ? FileChannel.open(Paths.get(fname), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)
+				: FileChannel.open(Paths.get(fname), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		this.buf = ByteBuffer.allocateDirect(Math.max(size, 16));
+		Charset cs = Charset.defaultCharset();
+		this.utf8 = cs.equals(StandardCharsets.UTF_8);
+		String sample = "azAZ09,.-% \t\n";
+		this.ascii = this.utf8 || Arrays.equals(sample.getBytes(cs), sample.getBytes(StandardCharsets.US_ASCII));
+		// the same replacements FileWriter makes for characters the charset can't handle
+		this.encoder = cs.newEncoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	}
+
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		if(this.closed) throw new IOException("Writer already closed");
+		int end = off + len;
+		for(int i = off; i < end; i++) {
+			char c = cbuf[i];
+			if(c < 0x80 && this.high == 0 && this.ascii) {
+				if(!this.buf.hasRemaining()) drain();
+				this.buf.put((byte) c);
+			} else {
+				i = encode(cbuf, i, end) - 1;
+			}
+		}
+	}
+
+	public void write(String str, int off, int len) throws IOException {
+		if(this.closed) throw new IOException("Writer already closed");
+		// strings go through a char array a chunk at a time
+		char[] chunk = new char[Math.min(len, 8192)];
+		while(len > 0) {
+			int n = Math.min(len, chunk.length);
+			str.getChars(off, off + n, chunk, 0);
+			write(chunk, 0, n);
+			off += n;
+			len -= n;
+		}
+	}
+
+	public void write(int c) throws IOException {
+		write(new char[] {(char) c}, 0, 1);
+	}
+
+	/*
+	 * Encodes a run of characters that aren't ASCII, starting at i, and returns where the run ends
+	 */
+	private int encode(char[] cbuf, int i, int end) throws IOException {
+		if(this.utf8) {
+			char c = cbuf[i];
+			if(this.high != 0) {
+				char h = this.high;
+				this.high = 0;
+				if(Character.isLowSurrogate(c)) {
+					putCodePoint(Character.toCodePoint(h, c));
+					return i + 1;
+				}
+				// a lone high surrogate gets replaced
+				putCodePoint('?');
+				return i;
+			}
+			if(Character.isHighSurrogate(c)) {
+				if(i + 1 == end) {
+					// wait for the other half
+					this.high = c;
+					return i + 1;
+				}
+				if(Character.isLowSurrogate(cbuf[i+1])) {
+					putCodePoint(Character.toCodePoint(c, cbuf[i+1]));
+					return i + 2;
+				}
+				putCodePoint('?');
+				return i + 1;
+			}
+			putCodePoint(Character.isLowSurrogate(c) ? '?' : c);
+			return i + 1;
+		}
+		// any other charset: hand the run (up to the next ASCII character) to the encoder
+		if(this.high != 0 && !Character.isLowSurrogate(cbuf[i])) {
+			this.high = 0;
+			while(this.encoder.encode(CharBuffer.wrap(new char[] {'?'}), this.buf, false).isOverflow()) drain();
+			return i;
+		}
+		int j = i;
+		while(j < end && (cbuf[j] >= 0x80 || !this.ascii)) j++;
+		CharBuffer in;
+		if(this.high != 0) {
+			char[] joined = new char[j - i + 1];
+			joined[0] = this.high;
+			System.arraycopy(cbuf, i, joined, 1, j - i);
+			in = CharBuffer.wrap(joined);
+			this.high = 0;
+		} else {
+			in = CharBuffer.wrap(cbuf, i, j - i);
+		}
+		// a high surrogate at the very end waits for the next write
+		if(j == end && in.remaining() > 0 && Character.isHighSurrogate(in.get(in.limit() - 1))) {
+			this.high = in.get(in.limit() - 1);
+			in.limit(in.limit() - 1);
+		}
+		while(this.encoder.encode(in, this.buf, false).isOverflow()) drain();
+		// a high surrogate right before an ASCII character is left over, and gets replaced
+		if(in.hasRemaining()) {
+			while(this.encoder.encode(CharBuffer.wrap(new char[] {'?'}), this.buf, false).isOverflow()) drain();
+		}
+		return j;
+	}
+
+	private void putCodePoint(int cp) throws IOException {
+		if(this.buf.remaining() < 4) drain();
+		if(cp < 0x80) {
+			this.buf.put((byte) cp);
+		} else if(cp < 0x800) {
+			this.buf.put((byte) (0xC0 | (cp >> 6)));
+			this.buf.put((byte) (0x80 | (cp & 0x3F)));
+		} else if(cp < 0x10000) {
+			this.buf.put((byte) (0xE0 | (cp >> 12)));
+			this.buf.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+			this.buf.put((byte) (0x80 | (cp & 0x3F)));
+		} else {
+			this.buf.put((byte) (0xF0 | (cp >> 18)));
+			this.buf.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+			this.buf.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+			this.buf.put((byte) (0x80 | (cp & 0x3F)));
+		}
+	}
+
+	/*
+	 * Writes everything in the buffer out to the file
+	 */
+	private void drain() throws IOException {
+		this.buf.flip();
+		while(this.buf.hasRemaining()) {
+			this.channel.write(this.buf);
+		}
+		this.buf.clear();
+	}
+
+	/*
+	 * Writes everything so far out to the file (so it shows up in the file's length)
+	 */
+	public void flush() throws IOException {
+		if(this.closed) return;
+		drain();
+	}
+
+	public void close() throws IOException {
+		if(this.closed) return;
+		try {
+			// a surrogate that never got its other half is replaced, like FileWriter does
+			if(this.high != 0) {
+				this.high = 0;
+				if(this.utf8) putCodePoint('?');
+				else {
+					while(this.encoder.encode(CharBuffer.wrap(new char[] {'?'}), this.buf, true).isOverflow()) drain();
+				}
+			}
+			drain();
+		} finally {
+			this.closed = true;
+			this.channel.close();
+		}
+	}
+}
@@ -0,0 +1,240 @@
+package model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+/*
+ * Reads files written by ColumnarWriter, either a group of rows at a time (as text or, for numeric columns, as numbers)
+ * or all at once back into the original text layout.
+ * Can also be run on its own to convert files back to text:
+ * 	java model.ColumnarReader <file>.col [<output file>]
+ * (with no output file, it writes to <file>.txt)
+ */
+public class ColumnarReader implements Closeable {
+
+	// the file
+	private final RandomAccessFile file;
+	// the separator between values
+	public final char sep;
+	// the comment lines and column names that went at the top of the text file
+	public final String header;
+	// the names of the columns
+	public final String[] names;
+	// where each group of rows starts, and how many rows it has
+	private final long[] offsets;
+	private final int[] counts;
+
+	/*
+	 * Opens a file and reads its footer (throws an IOException if it isn't a columnar results file)
+	 */
+	public ColumnarReader(String fname) throws IOException {
+		this.file = new RandomAccessFile(fname, "r");
+		long len = this.file.length();
+		byte[] magic = new byte[ColumnarWriter.MAGIC.length];
+		this.file.seek(len - magic.length);
+		this.file.readFully(magic);
+		if(len < 16 || !new String(magic, StandardCharsets.US_ASCII).equals(new String(ColumnarWriter.MAGIC, StandardCharsets.US_ASCII))) {
+			this.file.close();
+			throw new IOException(fname + " isn't a complete columnar results file");
+		}
+		this.file.seek(len - magic.length - 8);
+		DataInputStream in = open(this.file.readLong());
+		this.sep = (char) readVarLong(in);
+		this.header = readString(in);
+		this.names = new String[(int) readVarLong(in)];
+		for(int c = 0; c < this.names.length; c++) {
+			this.names[c] = readString(in);
+		}
+		int groups = (int) readVarLong(in);
+		this.offsets = new long[groups];
+		this.counts = new int[groups];
+		for(int g = 0; g < groups; g++) {
+			this.offsets[g] = readVarLong(in);
+			this.counts[g] = (int) readVarLong(in);
+		}
+	}
+
+	public int groups() {
+		return this.offsets.length;
+	}
+
+	/*
+	 * The number of rows in a group
+	 */
+	public int rows(int g) {
+		return this.counts[g];
+	}
+
+	/*
+	 * Reads all the columns of a group as text (one array per column, plus a last one with any rows that were kept whole)
+	 */
+	public String[][] readGroup(int g) throws IOException {
+		DataInputStream in = open(this.offsets[g]);
+		String[][] cols = new String[this.names.length+1][];
+		for(int c = 0; c < cols.length; c++) {
+			cols[c] = readColumn(in, this.counts[g]);
+		}
+		return cols;
+	}
+
+	/*
+	 * Reads one column of a group as numbers (anything that isn't a number is NaN)
+	 */
+	public double[] readDoubles(int g, int col) throws IOException {
+		DataInputStream in = open(this.offsets[g]);
+		int n = this.counts[g];
+		for(int c = 0; c < col; c++) {
+			skipColumn(in, n);
+		}
+		double[] vals = new double[n];
+		int enc = in.readByte();
+		if(enc == ColumnarWriter.DOUBLE) {
+			for(int i = 0; i < n; i++) {
+				vals[i] = in.readDouble();
+			}
+		} else if(enc == ColumnarWriter.LONG) {
+			for(int i = 0; i < n; i++) {
+				vals[i] = unzigzag(readVarLong(in));
+			}
+		} else {
+			String[] text = readValues(in, enc, n);
+			for(int i = 0; i < n; i++) {
+				try {
+					vals[i] = Double.parseDouble(text[i]);
+				} catch(NumberFormatException e) {
+					vals[i] = Double.NaN;
+				}
+			}
+		}
+		return vals;
+	}
+
+	/*
+	 * Writes the whole file back out in its original text layout
+	 */
+	public void toText(Writer out) throws IOException {
+		out.write(this.header);
+		for(int g = 0; g < groups(); g++) {
+			String[][] cols = readGroup(g);
+			String[] whole = cols[this.names.length];
+			for(int i = 0; i < this.counts[g]; i++) {
+				if(whole[i].length() > 0) {
+					out.write(whole[i]);
+				} else {
+					for(int c = 0; c < this.names.length; c++) {
+						out.write(cols[c][i]);
+						out.write(this.sep);
+					}
+				}
+				out.write('\n');
+			}
+		}
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		this.file.close();
+	}
+
+	/*
+	 * Converts a columnar file back to text
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.out.println("Usage: java model.ColumnarReader <file>.col [<output file>]");
+			return;
+		}
+		String out = args.length > 1 ? args[1] : args[0].replaceAll("\\.col$", "") + ".txt";
+		try(ColumnarReader reader = new ColumnarReader(args[0]);
+				Writer writer = out.equals("-") ? new OutputStreamWriter(System.out) : new BufferedWriter(new FileWriter(out))) {
+			reader.toText(writer);
+		}
+	}
+
+	private DataInputStream open(long pos) throws IOException {
+		this.file.seek(pos);
+		return new DataInputStream(new BufferedInputStream(Channels.newInputStream(this.file.getChannel()), 1 << 16));
+	}
+
+	private static String[] readColumn(DataInputStream in, int n) throws IOException {
+		return readValues(in, in.readByte(), n);
+	}
+
+	/*
+	 * Reads the values of a column stored with the given encoding, as text
+	 */
+	private static String[] readValues(DataInputStream in, int enc, int n) throws IOException {
+		String[] vals = new String[n];
+		switch(enc) {
+		case ColumnarWriter.DICT:
+			String[] words = new String[(int) readVarLong(in)];
+			for(int w = 0; w < words.length; w++) {
+				words[w] = readString(in);
+			}
+			for(int i = 0; i < n; i++) {
+				vals[i] = words[(int) readVarLong(in)];
+			}
+			break;
+		case ColumnarWriter.LONG:
+			for(int i = 0; i < n; i++) {
+				vals[i] = Long.toString(unzigzag(readVarLong(in)));
+			}
+			break;
+		case ColumnarWriter.DOUBLE:
+			for(int i = 0; i < n; i++) {
+				vals[i] = Double.toString(in.readDouble());
+			}
+			break;
+		case ColumnarWriter.STRING:
+			for(int i = 0; i < n; i++) {
+				vals[i] = readString(in);
+			}
+			break;
+		default:
+			throw new IOException("Unknown column encoding " + enc);
+		}
+		return vals;
+	}
+
+	/*
+	 * Skips over a column without keeping its values
+	 */
+	private static void skipColumn(DataInputStream in, int n) throws IOException {
+		int enc = in.readByte();
+		if(enc == ColumnarWriter.DOUBLE) {
+			in.readFully(new byte[8*n]);
+		} else {
+			readValues(in, enc, n);
+		}
+	}
+
+	private static long unzigzag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long v = 0;
+		int shift = 0;
+		while(true) {
+			int b = in.readUnsignedByte();
+			v |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0) return v;
+			shift += 7;
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] b = new byte[(int) readVarLong(in)];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+}
@@ -0,0 +1,263 @@
+package model;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/*
+ * Writes results in a binary columnar format instead of text, taking in the same text rows the text files would get
+ * (so it can stand in for the text file writers anywhere, including the buffers used for parallel runs).
+ * Rows are stored in groups, and within each group every column is stored separately in whichever encoding suits it:
+ * 	a dictionary of distinct values and a code for each row (for columns that repeat a lot, like the seed and parameters)
+ * 	whole numbers as variable length integers
+ * 	decimal numbers as 8 byte doubles
+ * 	anything else as plain strings
+ * Numbers are only stored as numbers if they convert back to exactly the same text, so the original text file can always be recovered.
+ * The comment lines and column names from the top of the text file go in the footer along with the schema and where each group is.
+ * Use ColumnarReader to read it or convert it back to text.
+ *
+ * Layout: MAGIC, row groups, footer, position of the footer (8 bytes), MAGIC
+ */
+public class ColumnarWriter extends Writer {
+
+	public static final byte[] MAGIC = {'S', 'D', 'C', '1'};
+	// ways of storing a column
+	public static final int DICT = 0, LONG = 1, DOUBLE = 2, STRING = 3;
+	// default number of rows in a group
+	public static final int ROWS = 65536;
+
+	// where it's writing to, and how far it's gotten
+	private final DataOutputStream out;
+	private long pos = 0;
+	// the separator between values
+	private final char sep;
+	// the number of rows in each group
+	private final int rows;
+	// the line currently coming in
+	private final StringBuilder line = new StringBuilder();
+	// the comment lines and column names, and the column names split up
+	private final StringBuilder header = new StringBuilder();
+	private String[] names;
+	// the values in the current group by column (the last column holds whole lines that don't fit the columns), and how many rows there are
+	private String[][] values;
+	private int count = 0;
+	// where each group starts and how many rows it has
+	private final ArrayList<Long> offsets = new ArrayList<Long>();
+	private final ArrayList<Integer> counts = new ArrayList<Integer>();
+	private boolean closed = false;
+
+	public ColumnarWriter(String fname, char sep) throws IOException {
+		this(fname, sep, ROWS);
+	}
+
+	public ColumnarWriter(String fname, char sep, int rows) throws IOException {
+		this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fname), 1 << 16));
+		this.sep = sep;
+		this.rows = rows;
+		this.out.write(MAGIC);
+		this.pos = MAGIC.length;
+	}
+
+	public void write(char[] cbuf, int off, int len) throws IOException {
+		for(int i = off; i < off + len; i++) {
+			if(cbuf[i] == '\n') {
+				addLine(this.line.toString());
+				this.line.setLength(0);
+			} else {
+				this.line.append(cbuf[i]);
+			}
+		}
+	}
+
+	/*
+	 * Takes in a whole line: comments and the column names go in the header, and everything after that is a row
+	 */
+	private void addLine(String text) throws IOException {
+		if(this.names == null) {
+			this.header.append(text).append('\n');
+			// the first line that isn't a comment (or blank) is the column names
+			if(text.length() > 0 && text.charAt(0) != '%') {
+				this.names = split(text);
+				if(this.names == null) this.names = new String[] {text};
+				this.values = new String[this.names.length+1][this.rows];
+			}
+			return;
+		}
+		String[] vals = split(text);
+		if(vals != null && vals.length == this.names.length) {
+			for(int c = 0; c < vals.length; c++) {
+				this.values[c][this.count] = vals[c];
+			}
+			this.values[this.names.length][this.count] = "";
+		} else {
+			// anything that doesn't fit gets kept whole
+			for(int c = 0; c < this.names.length; c++) {
+				this.values[c][this.count] = "";
+			}
+			this.values[this.names.length][this.count] = text;
+		}
+		this.count++;
+		if(this.count == this.rows) writeGroup();
+	}
+
+	/*
+	 * Splits a row into its values (every value is followed by the separator, so rows that don't end in one are returned as null)
+	 */
+	private String[] split(String text) {
+		if(text.length() == 0 || text.charAt(text.length()-1) != this.sep) return null;
+		ArrayList<String> vals = new ArrayList<String>();
+		int start = 0;
+		for(int i = 0; i < text.length(); i++) {
+			if(text.charAt(i) == this.sep) {
+				vals.add(text.substring(start, i));
+				start = i+1;
+			}
+		}
+		return vals.toArray(new String[vals.size()]);
+	}
+
+	/*
+	 * Writes out the current group, one column at a time
+	 */
+	private void writeGroup() throws IOException {
+		if(this.count == 0) return;
+		this.offsets.add(this.pos);
+		this.counts.add(this.count);
+		for(String[] col : this.values) {
+			writeColumn(col, this.count);
+		}
+		this.count = 0;
+	}
+
+	/*
+	 * Picks the smallest encoding that gets back the same text and writes the column with it
+	 */
+	private void writeColumn(String[] col, int n) throws IOException {
+		HashMap<String, Integer> dict = new HashMap<String, Integer>();
+		boolean longs = true;
+		boolean doubles = true;
+		for(int i = 0; i < n; i++) {
+			if(!dict.containsKey(col[i])) {
+				dict.put(col[i], dict.size());
+				longs = longs && isLong(col[i]);
+				doubles = doubles && isDouble(col[i]);
+			}
+		}
+		if(dict.size()*2 <= n || (!longs && !doubles && dict.size() < n)) {
+			writeByte(DICT);
+			String[] words = new String[dict.size()];
+			for(String w : dict.keySet()) {
+				words[dict.get(w)] = w;
+			}
+			writeVarLong(words.length);
+			for(String w : words) {
+				writeString(w);
+			}
+			for(int i = 0; i < n; i++) {
+				writeVarLong(dict.get(col[i]));
+			}
+		} else if(!longs && !doubles) {
+			writeByte(STRING);
+			for(int i = 0; i < n; i++) {
+				writeString(col[i]);
+			}
+		} else if(longs) {
+			writeByte(LONG);
+			for(int i = 0; i < n; i++) {
+				long v = Long.parseLong(col[i]);
+				// zigzag so small negative numbers are small too
+				writeVarLong((v << 1) ^ (v >> 63));
+			}
+		} else {
+			writeByte(DOUBLE);
+			for(int i = 0; i < n; i++) {
+				this.out.writeDouble(Double.parseDouble(col[i]));
+			}
+			this.pos += 8L*n;
+		}
+	}
+
+	/*
+	 * Whether a value is a whole number that prints the same way it's written
+	 */
+	private static boolean isLong(String val) {
+		if(val.length() == 0 || val.length() > 19) return false;
+		try {
+			return Long.toString(Long.parseLong(val)).equals(val);
+		} catch(NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/*
+	 * Whether a value is a decimal number that prints the same way it's written
+	 */
+	private static boolean isDouble(String val) {
+		if(val.length() == 0) return false;
+		try {
+			return Double.toString(Double.parseDouble(val)).equals(val);
+		} catch(NumberFormatException e) {
+			return false;
+		}
+	}
+
+	public void flush() throws IOException {
+		this.out.flush();
+	}
+
+	/*
+	 * Writes out whatever's left and the footer
+	 */
+	public void close() throws IOException {
+		if(this.closed) return;
+		this.closed = true;
+		if(this.line.length() > 0) {
+			addLine(this.line.toString());
+		}
+		if(this.names != null) writeGroup();
+		long footer = this.pos;
+		writeVarLong(this.sep);
+		writeString(this.header.toString());
+		String[] cols = this.names == null ? new String[0] : this.names;
+		writeVarLong(cols.length);
+		for(String c : cols) {
+			writeString(c);
+		}
+		writeVarLong(this.offsets.size());
+		for(int g = 0; g < this.offsets.size(); g++) {
+			writeVarLong(this.offsets.get(g));
+			writeVarLong(this.counts.get(g));
+		}
+		this.out.writeLong(footer);
+		this.out.write(MAGIC);
+		this.out.close();
+	}
+
+	private void writeByte(int b) throws IOException {
+		this.out.writeByte(b);
+		this.pos++;
+	}
+
+	/*
+	 * Writes a non-negative number 7 bits at a time
+	 */
+	private void writeVarLong(long v) throws IOException {
+		while((v & ~0x7FL) != 0) {
+			writeByte((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		writeByte((int) v);
+	}
+
+	private void writeString(String s) throws IOException {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		writeVarLong(b.length);
+		this.out.write(b);
+		this.pos += b.length;
+	}
+}
@@ -0,0 +1,241 @@
+package model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/*
+ * The full set of simulations in a run: every combination of test parameter values for each set of randomly drawn parameters,
+ * each run for the designated number of replicates.
+ * Every replicate has an index, so any one of them can be looked up directly without going through all the ones before it
+ * (replicates vary fastest, then the last test parameter, on up to the first test parameter, and then the random iteration).
+ */
+public class DesignSpace implements Serializable, Iterable<String[]> {
+
+	// base parameter values (used for anything that isn't tested or randomly drawn)
+	private final String[] base;
+	// indices of the parameters that are tested, and the values to test for each
+	private final int[] testparams;
+	private final String[][] testvals;
+	// indices of the parameters that are randomly drawn, and the values drawn for each iteration
+	private final int[] randparams;
+	private final String[][] draws;
+	// number of replicates of each combination of parameter values
+	private final int reps;
+	// number of combinations of test parameter values
+	private final long points;
+	// how many combinations of the remaining test parameters there are for each value of each test parameter
+	private final long[] strides;
+	// for each parameter, which test parameter (or random parameter) it is, or -1 if it isn't one
+	private final int[] testdex;
+	private final int[] randdex;
+
+	/*
+	 * Sets up the design from the base parameter values, the test parameters and their values,
+	 * and the random parameters and the values drawn for them in each iteration (one row per iteration)
+	 */
+	public DesignSpace(String[] base, List<Integer> testparams, List<? extends List<String>> testvals,
+			List<Integer> randparams, String[][] draws, int reps) {
+		this.base = base.clone();
+		this.testparams = new int[testparams.size()];
+		this.testvals = new String[testparams.size()][];
+		for(int t = 0; t < this.testparams.length; t++) {
+			this.testparams[t] = testparams.get(t);
+			this.testvals[t] = testvals.get(t).toArray(new String[0]);
+		}
+		this.randparams = new int[randparams.size()];
+		for(int r = 0; r < this.randparams.length; r++) {
+			this.randparams[r] = randparams.get(r);
+		}
+		this.draws = draws;
+		this.reps = reps;
+		// work backwards from the last test parameter, which changes the fastest
+		this.strides = new long[this.testparams.length];
+		long n = 1;
+		for(int t = this.testparams.length-1; t >= 0; t--) {
+			this.strides[t] = n;
+			n = Math.multiplyExact(n, this.testvals[t].length);
+		}
+		this.points = n;
+		// and make it easy to go the other way, from parameters to test or random parameters
+		this.testdex = new int[this.base.length];
+		this.randdex = new int[this.base.length];
+		Arrays.fill(this.testdex, -1);
+		Arrays.fill(this.randdex, -1);
+		for(int t = 0; t < this.testparams.length; t++) {
+			this.testdex[this.testparams[t]] = t;
+		}
+		for(int r = 0; r < this.randparams.length; r++) {
+			this.randdex[this.randparams[r]] = r;
+		}
+	}
+
+	/*
+	 * The base value of a parameter (the first one listed for test parameters)
+	 */
+	public String base(int p) {
+		return this.base[p];
+	}
+
+	/*
+	 * The total number of replicates across the whole run
+	 */
+	public long size() {
+		return Math.multiplyExact(Math.multiplyExact((long) this.draws.length, this.points), this.reps);
+	}
+
+	/*
+	 * The number of combinations of test parameter values (in each random iteration)
+	 */
+	public long points() {
+		return this.points;
+	}
+
+	/*
+	 * The number of sets of randomly drawn parameters
+	 */
+	public int iterations() {
+		return this.draws.length;
+	}
+
+	/*
+	 * The number of replicates of each combination of parameter values
+	 */
+	public int reps() {
+		return this.reps;
+	}
+
+	/*
+	 * Which random iteration a replicate belongs to
+	 */
+	public int iteration(long u) {
+		return (int) (u/this.reps/this.points);
+	}
+
+	/*
+	 * Which combination of test parameter values a replicate belongs to (within its iteration)
+	 */
+	public long point(long u) {
+		return (u/this.reps)%this.points;
+	}
+
+	/*
+	 * Which replicate of its combination of parameter values a replicate is
+	 */
+	public int replicate(long u) {
+		return (int) (u%this.reps);
+	}
+
+	/*
+	 * Which of its values a given test parameter takes on for a combination of test parameter values
+	 */
+	public int valueIndex(long point, int t) {
+		return (int) ((point/this.strides[t])%this.testvals[t].length);
+	}
+
+	/*
+	 * All the values a parameter takes on over the run: its test values, its value in each random iteration, or just its base value
+	 */
+	public String[] values(int p) {
+		if(this.testdex[p] >= 0) return this.testvals[this.testdex[p]].clone();
+		if(this.randdex[p] >= 0) {
+			String[] vals = new String[this.draws.length];
+			for(int i = 0; i < vals.length; i++) {
+				vals[i] = this.draws[i][this.randdex[p]];
+			}
+			return vals;
+		}
+		return new String[] {this.base[p]};
+	}
+
+	/*
+	 * Which of the values listed by values(p) a parameter takes on for a given replicate
+	 */
+	public int valueOf(long u, int p) {
+		if(this.testdex[p] >= 0) return valueIndex(point(u), this.testdex[p]);
+		if(this.randdex[p] >= 0) return iteration(u);
+		return 0;
+	}
+
+	/*
+	 * For each random iteration, the last iteration with the same values for all the random parameters that aren't in free
+	 * (so its replicates only differ from the ones in the earlier iteration in the free parameters)
+	 */
+	public int[] lastIterations(int[] free) {
+		boolean[] skip = new boolean[this.base.length];
+		for(int f : free) {
+			skip[f] = true;
+		}
+		int[] last = new int[this.draws.length];
+		HashMap<List<String>, Integer> seen = new HashMap<List<String>, Integer>();
+		for(int i = this.draws.length-1; i >= 0; i--) {
+			String[] vals = new String[this.randparams.length];
+			for(int r = 0; r < this.randparams.length; r++) {
+				if(!skip[this.randparams[r]]) vals[r] = this.draws[i][r];
+			}
+			Integer later = seen.putIfAbsent(Arrays.asList(vals), i);
+			last[i] = later == null ? i : later;
+		}
+		return last;
+	}
+
+	/*
+	 * The last replicate in the run with the same parameter values as a given replicate, apart from the free parameters
+	 * (using the last iterations from lastIterations for the same free parameters)
+	 */
+	public long lastWith(long u, int[] free, int[] lastiters) {
+		long p = point(u);
+		// the free test parameters go to their last values, and the rest stay where they are
+		for(int f : free) {
+			int t = this.testdex[f];
+			if(t >= 0) p += (this.testvals[t].length - 1 - valueIndex(p, t))*this.strides[t];
+		}
+		return ((long) lastiters[iteration(u)]*this.points + p)*this.reps + this.reps - 1;
+	}
+
+	/*
+	 * Fills in the parameter values for a given replicate
+	 */
+	public void fill(long u, String[] params) {
+		if(u < 0 || u >= size()) throw new IndexOutOfBoundsException("No replicate " + u + " in a design of " + size());
+		System.arraycopy(this.base, 0, params, 0, this.base.length);
+		String[] draw = this.draws[iteration(u)];
+		for(int r = 0; r < this.randparams.length; r++) {
+			params[this.randparams[r]] = draw[r];
+		}
+		long p = point(u);
+		for(int t = 0; t < this.testparams.length; t++) {
+			params[this.testparams[t]] = this.testvals[t][valueIndex(p, t)];
+		}
+	}
+
+	/*
+	 * Returns the parameter values for a given replicate
+	 */
+	public String[] get(long u) {
+		String[] params = new String[this.base.length];
+		fill(u, params);
+		return params;
+	}
+
+	/*
+	 * Goes through the parameter values of each replicate in order, one at a time
+	 */
+	public Iterator<String[]> iterator() {
+		return new Iterator<String[]>() {
+			long u = 0;
+
+			public boolean hasNext() {
+				return this.u < size();
+			}
+
+			public String[] next() {
+				if(!hasNext()) throw new NoSuchElementException();
+				return get(this.u++);
+			}
+		};
+	}
+}
@@ -0,0 +1,343 @@
+package model;
+
+import java.io.Serializable;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ec.util.MersenneTwisterFast;
+import sim.util.distribution.Probability;
+
+/*
+ * A distribution to draw parameter values from, parsed once from a code in the input file of the form <letter>(<parameters>):
+ * 	U(<start>,<stop>)	uniform
+ * 	C(<number of options>)	discrete choice between 0 and one less than the number of options
+ * 	N(<mean>,<standard deviation>)	normal
+ * 	G(<mean>,<standard deviation>,<optional minimum>)	gamma (see distSampler.GammaSampler)
+ * 	L(<mean of log>,<standard deviation of log>)	lognormal
+ * 	B(<mean>,<inverse square root sample size>)	beta (see distSampler.BetaSampler)
+ * 	T(<mean>,<standard deviation>,<minimum>,<maximum>)	normal truncated to between the minimum and maximum
+ * 	P(<mean>)	Poisson
+ * 	D(<weight of 0>,<weight of 1>,...)	discrete choice with the given (relative) weights
+ * Distributions are immutable, so the same one can be shared by any number of models drawing with their own random number generators.
+ */
+public abstract class Distribution implements Serializable {
+
+	// the code it was parsed from
+	public final String code;
+	// the numbers inside the parentheses
+	protected final double[] args;
+	// distributions that have already been parsed (anything that isn't a distribution is stored as NONE)
+	private static final ConcurrentHashMap<String, Distribution> parsed = new ConcurrentHashMap<String, Distribution>();
+	private static final Distribution NONE = new Distribution("", new double[0]) {
+		public double draw(MersenneTwisterFast random) {
+			return Double.NaN;
+		}
+
+		public double quantile(double u) {
+			return Double.NaN;
+		}
+	};
+
+	protected Distribution(String code, double[] args) {
+		this.code = code;
+		this.args = args;
+	}
+
+	/*
+	 * Draws a random value
+	 */
+	public abstract double draw(MersenneTwisterFast random);
+
+	/*
+	 * Fills an array with random draws
+	 */
+	public void fill(MersenneTwisterFast random, double[] out) {
+		for(int i = 0; i < out.length; i++) {
+			out[i] = draw(random);
+		}
+	}
+
+	/*
+	 * The value below which a proportion u of draws fall (for mapping space-filling designs onto the distribution)
+	 */
+	public abstract double quantile(double u);
+
+	/*
+	 * Whether a value is written as a distribution: one of the distribution letters followed by something in parentheses
+	 * (this doesn't check whether what's in the parentheses makes sense)
+	 */
+	public static boolean isCode(String val) {
+		String code = val.replaceAll("\\s", "");
+		return code.length() >= 4 && "UCNGLBTPD".indexOf(code.charAt(0)) >= 0 && code.charAt(1) == '('
+				&& code.charAt(code.length()-1) == ')';
+	}
+
+	/*
+	 * Gets the distribution for a value, parsing it the first time it's seen, or returns null if it isn't a distribution
+	 * Throws an IllegalArgumentException explaining the problem if it looks like a distribution but isn't formatted correctly
+	 */
+	public static Distribution get(String val) {
+		Distribution d = parsed.get(val);
+		if(d == null) {
+			d = isCode(val) ? compile(val) : NONE;
+			parsed.put(val, d);
+		}
+		return d == NONE ? null : d;
+	}
+
+	/*
+	 * Parses a distribution (throws an IllegalArgumentException if it isn't formatted correctly)
+	 */
+	public static Distribution compile(String val) {
+		String code = val.replaceAll("\\s", "");
+		if(!isCode(code)) throw new IllegalArgumentException(val + " isn't a distribution");
+		String[] split = code.substring(2, code.length()-1).split(",");
+		double[] a = new double[split.length];
+		for(int i = 0; i < split.length; i++) {
+			try {
+				a[i] = Double.parseDouble(split[i]);
+			} catch(NumberFormatException e) {
+				throw new IllegalArgumentException(val + ": '" + split[i] + "' isn't a number");
+			}
+		}
+		switch(code.charAt(0)) {
+		case 'U':
+			check(val, a, 2, 2);
+			return new Uniform(code, a);
+		case 'C':
+			check(val, a, 1, 1);
+			if(a[0] < 1 || a[0] != Math.floor(a[0])) throw new IllegalArgumentException(val + ": the number of options has to be a whole number above 0");
+			return new Choice(code, a);
+		case 'N':
+			check(val, a, 2, 2);
+			return new Normal(code, a);
+		case 'G':
+			check(val, a, 2, 3);
+			if(a[1] < 0) throw new IllegalArgumentException(val + ": the standard deviation can't be negative");
+			return new Gamma(code, a.length < 3 ? new double[] {a[0], a[1], 0} : a);
+		case 'L':
+			check(val, a, 2, 2);
+			return new Lognormal(code, a);
+		case 'B':
+			check(val, a, 2, 2);
+			if(a[1] < 0) throw new IllegalArgumentException(val + ": the inverse square root sample size can't be negative");
+			return new BetaDist(code, a);
+		case 'T':
+			check(val, a, 4, 4);
+			if(a[1] <= 0 || a[2] >= a[3]) throw new IllegalArgumentException(val + ": needs a positive standard deviation and a minimum below the maximum");
+			return new TruncatedNormal(code, a);
+		case 'P':
+			check(val, a, 1, 1);
+			if(a[0] < 0) throw new IllegalArgumentException(val + ": the mean can't be negative");
+			return new Poisson(code, a);
+		default:
+			double total = 0;
+			for(double w : a) {
+				if(w < 0) throw new IllegalArgumentException(val + ": weights can't be negative");
+				total += w;
+			}
+			if(total <= 0) throw new IllegalArgumentException(val + ": needs at least one positive weight");
+			return new Weighted(code, a);
+		}
+	}
+
+	/*
+	 * Makes sure there are the right number of parameters
+	 */
+	private static void check(String val, double[] a, int min, int max) {
+		if(a.length < min || a.length > max) {
+			throw new IllegalArgumentException(val + ": needs " + (min == max ? "" + min : min + " to " + max) + " parameters");
+		}
+	}
+
+	public String toString() {
+		return this.code;
+	}
+
+	/*
+	 * Inverts a continuous distribution function (cdf) by bisection between lo and hi (which is doubled until it's high enough)
+	 */
+	protected static double invert(java.util.function.DoubleUnaryOperator cdf, double u, double lo, double hi, boolean grow) {
+		while(grow && cdf.applyAsDouble(hi) < u) {
+			lo = hi;
+			hi *= 2;
+		}
+		for(int i = 0; i < 200 && hi - lo > 1e-15*Math.max(Math.abs(hi), 1e-300); i++) {
+			double mid = (lo + hi)/2;
+			if(cdf.applyAsDouble(mid) < u) lo = mid;
+			else hi = mid;
+		}
+		return (lo + hi)/2;
+	}
+
+	static class Uniform extends Distribution {
+		Uniform(String code, double[] args) {
+			super(code, args);
+		}
+
+		public double draw(MersenneTwisterFast random) {
+			return random.nextDouble()*(this.args[1]-this.args[0]) + this.args[0];
+		}
+
+		public double quantile(double u) {
+			return u*(this.args[1]-this.args[0]) + this.args[0];
+		}
+	}
+
+	static class Choice extends Distribution {
+		Choice(String code, double[] args) {
+			super(code, args);
+		}
+
+		public double draw(MersenneTwisterFast random) {
+			return random.nextInt((int) this.args[0]);
+		}
+
+		public double quantile(double u) {
+			return Math.floor(u*this.args[0]);
+		}
+	}
+
+	static class Normal extends Distribution {
+		Normal(String code, double[] args) {
+			super(code, args);
+		}
+
+		public double draw(MersenneTwisterFast random) {
+			return random.nextGaussian()*this.args[1] + this.args[0];
+		}
+
+		public double quantile(double u) {
+			return Probability.normalInverse(u)*this.args[1] + this.args[0];
+		}
+	}
+
+	static class Gamma extends Distribution {
+		private final distSampler.GammaSampler sampler;
+
+		Gamma(String code, double[] args) {
+			super(code, args);
+			this.sampler = new distSampler.GammaSampler(args[0], args[1], args[2]);
+		}
+
+		public double draw(MersenneTwisterFast random) {
+			return this.sampler.next(random);
+		}
+
+		public void fill(MersenneTwisterFast random, double[] out) {
+			this.sampler.fill(random, out);
+		}
+
+		public double quantile(double u) {
+			return distSampler.gammaQuantile(u, this.args[0], this.args[1], this.args[2]);
+		}
+	}
+
+	static class Lognormal extends Distribution {
+		Lognormal(String code, double[] args) {
+			super(code, args);
+		}
+
+		public double draw(MersenneTwisterFast random) {
+			return Math.exp(random.nextGaussian()*this.args[1] + this.args[0]);
+		}
+
+		public double quantile(double u) {
+			return Math.exp(Probability.normalInverse(u)*this.args[1] + this.args[0]);
+		}
+	}
+
+	static class BetaDist extends Distribution {
+		private final distSampler.BetaSampler sampler;
+
+		BetaDist(String code, double[] args) {
+			super(code, args);
+			this.sampler = new distSampler.BetaSampler(args[0], args[1]);
+		}
+
+		public double draw(MersenneTwisterFast random) {
+			return this.sampler.next(random);
+		}
+
+		public void fill(MersenneTwisterFast random, double[] out) {
+			this.sampler.fill(random, out);
+		}
+
+		public double quantile(double u) {
+			if(this.args[1] < .0001) return this.args[0];
+			return invert(x -> Probability.beta(this.sampler.a, this.sampler.b, x), u, 0, 1, false);
+		}
+	}
+
+	static class TruncatedNormal extends Distribution {
+		private final distSampler.TruncatedNormalSampler sampler;
+
+		TruncatedNormal(String code, double[] args) {
+			super(code, args);
+			this.sampler = new distSampler.TruncatedNormalSampler(args[0], args[1], args[2], args[3]);
+		}
+
+		public double draw(MersenneTwisterFast random) {
+			return this.sampler.next(random);
+		}
+
+		public void fill(MersenneTwisterFast random, double[] out) {
+			this.sampler.fill(random, out);
+		}
+
+		public double quantile(double u) {
+			// map u onto the part of the normal between the minimum and maximum
+			double lo = Probability.normal((this.args[2]-this.args[0])/this.args[1]);
+			double hi = Probability.normal((this.args[3]-this.args[0])/this.args[1]);
+			double x = Probability.normalInverse(lo + u*(hi-lo))*this.args[1] + this.args[0];
+			return Math.min(Math.max(x, this.args[2]), this.args[3]);
+		}
+	}
+
+	static class Poisson extends Distribution {
+		Poisson(String code, double[] args) {
+			super(code, args);
+		}
+
+		public double draw(MersenneTwisterFast random) {
+			return distSampler.drawPoisson(random, this.args[0]);
+		}
+
+		public double quantile(double u) {
+			if(this.args[0] == 0) return 0;
+			int k = 0;
+			while(Probability.poisson(k, this.args[0]) < u) {
+				k++;
+			}
+			return k;
+		}
+	}
+
+	static class Weighted extends Distribution {
+		// running totals of the weights, as a proportion of the total
+		private final double[] cumulative;
+
+		Weighted(String code, double[] args) {
+			super(code, args);
+			this.cumulative = new double[args.length];
+			double total = 0;
+			for(int i = 0; i < args.length; i++) {
+				total += args[i];
+				this.cumulative[i] = total;
+			}
+			for(int i = 0; i < args.length; i++) {
+				this.cumulative[i] /= total;
+			}
+		}
+
+		public double draw(MersenneTwisterFast random) {
+			return quantile(random.nextDouble());
+		}
+
+		public double quantile(double u) {
+			for(int i = 0; i < this.cumulative.length; i++) {
+				if(u < this.cumulative[i]) return i;
+			}
+			return this.cumulative.length-1;
+		}
+	}
+}
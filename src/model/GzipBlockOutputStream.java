@@ -0,0 +1,158 @@
+package model;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/*
+ * Compresses output in blocks on a shared pool of background threads (the way pigz does), so compressing doesn't hold up the simulation.
+ * Each block becomes its own gzip member, and the members are written out in order, one after another.
+ * Concatenated members are still a valid gzip file, so gunzip, zcat, R, etc. read it like any other.
+ * Flushing ends the current block early and waits until everything so far is on disk,
+ * so the file always ends on a whole member after a flush (which is what lets resumed runs cut a file back to where it was).
+ */
+public class GzipBlockOutputStream extends OutputStream {
+
+	// default size of each block before it's compressed
+	public static final int BLOCK = 1 << 20;
+	// threads shared by every compressed file (created the first time one is opened)
+	private static ExecutorService pool;
+
+	// where the compressed blocks go
+	private final OutputStream out;
+	// how hard to compress
+	private final int level;
+	// the block being filled
+	private byte[] buf;
+	private int len = 0;
+	// blocks that are being compressed, in the order they need to be written, and how many can be going at once
+	private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<Future<byte[]>>();
+	private final int maxpending;
+	private boolean closed = false;
+
+	public GzipBlockOutputStream(OutputStream out) {
+		this(out, BLOCK, Deflater.DEFAULT_COMPRESSION);
+	}
+
+	public GzipBlockOutputStream(OutputStream out, int block, int level) {
+		this.out = out;
+		this.buf = new byte[block];
+		this.level = level;
+		this.maxpending = 2*Runtime.getRuntime().availableProcessors();
+		synchronized(GzipBlockOutputStream.class) {
+			if(pool == null) {
+				pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+					Thread t = new Thread(r, "gzip");
+					t.setDaemon(true);
+					return t;
+				});
+			}
+		}
+	}
+
+	public void write(int b) throws IOException {
+		if(this.len == this.buf.length) submit();
+		this.buf[this.len++] = (byte) b;
+	}
+
+	public void write(byte[] b, int off, int n) throws IOException {
+		while(n > 0) {
+			if(this.len == this.buf.length) submit();
+			int k = Math.min(n, this.buf.length - this.len);
+			System.arraycopy(b, off, this.buf, this.len, k);
+			this.len += k;
+			off += k;
+			n -= k;
+		}
+	}
+
+	/*
+	 * Ends the current block, waits for everything to be compressed, and writes it all out
+	 */
+	public void flush() throws IOException {
+		submit();
+		while(!this.pending.isEmpty()) {
+			writeNext();
+		}
+		this.out.flush();
+	}
+
+	public void close() throws IOException {
+		if(this.closed) return;
+		this.closed = true;
+		try {
+			flush();
+		} finally {
+			this.out.close();
+		}
+	}
+
+	/*
+	 * Hands the current block off to be compressed (writing out finished blocks first if too many are waiting)
+	 */
+	private void submit() throws IOException {
+		if(this.len == 0) return;
+		while(this.pending.size() >= this.maxpending) {
+			writeNext();
+		}
+		final byte[] block = this.buf;
+		final int n = this.len;
+		final int lvl = this.level;
+		this.pending.add(pool.submit(() -> compress(block, n, lvl)));
+		this.buf = new byte[block.length];
+		this.len = 0;
+	}
+
+	/*
+	 * Writes out the oldest block once it's compressed
+	 */
+	private void writeNext() throws IOException {
+		try {
+			this.out.write(this.pending.poll().get());
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while compressing", e);
+		} catch(ExecutionException e) {
+			throw new IOException("Failed to compress", e.getCause());
+		}
+	}
+
+	/*
+	 * Compresses a block into a complete gzip member: header, deflated data, then the CRC and length
+	 */
+	public static byte[] compress(byte[] block, int n, int level) {
+		ByteArrayOutputStream member = new ByteArrayOutputStream(n/4 + 64);
+		member.write(new byte[] {0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff}, 0, 10);
+		Deflater deflater = new Deflater(level, true);
+		deflater.setInput(block, 0, n);
+		deflater.finish();
+		byte[] chunk = new byte[1 << 16];
+		while(!deflater.finished()) {
+			int k = deflater.deflate(chunk);
+			member.write(chunk, 0, k);
+		}
+		deflater.end();
+		CRC32 crc = new CRC32();
+		crc.update(block, 0, n);
+		writeInt(member, (int) crc.getValue());
+		writeInt(member, n);
+		return member.toByteArray();
+	}
+
+	/*
+	 * Writes an int in little-endian order (the way gzip wants it)
+	 */
+	private static void writeInt(ByteArrayOutputStream out, int v) {
+		out.write(v & 0xff);
+		out.write((v >>> 8) & 0xff);
+		out.write((v >>> 16) & 0xff);
+		out.write((v >>> 24) & 0xff);
+	}
+}
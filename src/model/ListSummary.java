@@ -0,0 +1,160 @@
+package model;
+
+import java.lang.reflect.Array;
+import java.util.Arrays;
+import java.util.Collection;
+
+/*
+ * Summarizes each list result instead of writing it out in full (for big lists, like the resources on every patch),
+ * going through the elements one at a time without copying the list. Either:
+ * 	histogram(<min>,<max>,<bins>) - the number of values in each of a fixed set of equally wide bins between min and max
+ * 		(plus the number below and above them, and the max itself goes in the top bin)
+ * 	quantiles - the count, mean, variance, min, and max, and the same quantiles as aggregate (from a QuantileSketch)
+ * Only numbers are counted (true and false count as 1 and 0), anything else in the list is left out.
+ */
+public class ListSummary {
+
+	// the kinds of summaries
+	public static final int HISTOGRAM = 0, QUANTILES = 1;
+
+	public final int mode;
+	// the range and number of bins for a histogram
+	public final double min;
+	public final double max;
+	public final int bins;
+	// the quantiles to write
+	public final double[] quantiles;
+	// reused for each list
+	private final long[] counts;
+	private final RunningStats stats = new RunningStats();
+	private final QuantileSketch sketch = new QuantileSketch();
+
+	/*
+	 * Parses the listsummary setting (throws an IllegalArgumentException if it isn't one of the options)
+	 */
+	public ListSummary(String setting, double[] quantiles) {
+		String s = setting.trim();
+		this.quantiles = quantiles;
+		if(s.equals("quantiles")) {
+			this.mode = QUANTILES;
+			this.min = 0;
+			this.max = 0;
+			this.bins = 0;
+			this.counts = null;
+		} else if(s.startsWith("histogram(") && s.endsWith(")")) {
+			String[] vals = s.substring(10, s.length() - 1).split(",");
+			if(vals.length != 3) throw new IllegalArgumentException("A histogram needs a min, max, and number of bins: " + setting);
+			this.mode = HISTOGRAM;
+			this.min = Double.parseDouble(vals[0].trim());
+			this.max = Double.parseDouble(vals[1].trim());
+			this.bins = Integer.parseInt(vals[2].trim());
+			if(!(this.max > this.min) || this.bins < 1) throw new IllegalArgumentException("A histogram needs a max above its min and at least one bin: " + setting);
+			this.counts = new long[this.bins + 2];
+		} else {
+			throw new IllegalArgumentException("Unknown list summary: " + setting + " (should be quantiles or histogram(<min>,<max>,<bins>))");
+		}
+	}
+
+	/*
+	 * The names of the columns the summary is written in
+	 */
+	public String[] columns() {
+		String[] cols;
+		if(this.mode == QUANTILES) {
+			cols = new String[5 + this.quantiles.length];
+			System.arraycopy(new String[] {"Count", "Mean", "Variance", "Min", "Max"}, 0, cols, 0, 5);
+			for(int q = 0; q < this.quantiles.length; q++) {
+				cols[5 + q] = "Q" + this.quantiles[q];
+			}
+		} else {
+			cols = new String[this.bins + 3];
+			cols[0] = "Count";
+			cols[1] = "Below";
+			for(int b = 0; b < this.bins; b++) {
+				cols[2 + b] = "Bin" + (this.min + b*(this.max - this.min)/this.bins);
+			}
+			cols[this.bins + 2] = "Above";
+		}
+		return cols;
+	}
+
+	/*
+	 * Goes through a list (a collection or array) and adds its summary to a row
+	 */
+	public void write(RowEncoder row, Object list) {
+		this.stats.clear();
+		this.sketch.clear();
+		if(this.counts != null) Arrays.fill(this.counts, 0);
+		if(list instanceof double[]) {
+			for(double x : (double[]) list) add(x);
+		} else if(list instanceof int[]) {
+			for(int x : (int[]) list) add(x);
+		} else if(list instanceof long[]) {
+			for(long x : (long[]) list) add(x);
+		} else if(list instanceof float[]) {
+			for(float x : (float[]) list) add(x);
+		} else if(list instanceof Object[]) {
+			for(Object x : (Object[]) list) add(x);
+		} else if(list instanceof Collection) {
+			for(Object x : (Collection<?>) list) add(x);
+		} else if(list != null && list.getClass().isArray()) {
+			for(int i = 0; i < Array.getLength(list); i++) add(Array.get(list, i));
+		}
+		if(this.mode == QUANTILES) {
+			row.add(this.stats.count()).add(this.stats.mean()).add(this.stats.variance()).add(this.stats.min()).add(this.stats.max());
+			for(double q : this.quantiles) {
+				row.add(this.sketch.quantile(q));
+			}
+		} else {
+			row.add(this.stats.count());
+			for(long c : this.counts) {
+				row.add(c);
+			}
+		}
+	}
+
+	private void add(Object x) {
+		if(x instanceof Number) add(((Number) x).doubleValue());
+		else if(x instanceof Boolean) add((Boolean) x ? 1 : 0);
+	}
+
+	private void add(double x) {
+		if(Double.isNaN(x)) return;
+		this.stats.add(x);
+		if(this.mode == QUANTILES) {
+			this.sketch.add(x);
+		} else if(x < this.min) {
+			this.counts[0]++;
+		} else if(x > this.max) {
+			this.counts[this.bins + 1]++;
+		} else {
+			this.counts[1 + Math.min((int) ((x - this.min)/(this.max - this.min)*this.bins), this.bins - 1)]++;
+		}
+	}
+
+	/*
+	 * Reads a list back out of the string getResult made of it ([a, b, c]), for lists that can't be read directly
+	 * (anything that isn't a number is NaN)
+	 */
+	public static double[] parse(String list) {
+		String s = list.trim();
+		if(s.startsWith("[")) s = s.substring(1);
+		if(s.endsWith("]")) s = s.substring(0, s.length() - 1);
+		if(s.trim().length() == 0) return new double[0];
+		String[] vals = s.split(",");
+		double[] nums = new double[vals.length];
+		for(int i = 0; i < vals.length; i++) {
+			String v = vals[i].trim();
+			if(v.equals("true")) nums[i] = 1;
+			else if(v.equals("false")) nums[i] = 0;
+			else {
+				try {
+					nums[i] = Double.parseDouble(v);
+				} catch(NumberFormatException e) {
+					nums[i] = Double.NaN;
+				}
+			}
+		}
+		return nums;
+	}
+}
@@ -48,6 +48,8 @@ public class ModelTemplate extends SimDataCollection{
 	/*
 	 * Optional!
 	 * Overrides Model#setParamVal to set parameter values from file for those that need to be handled manually
+	 * (parameters that are fields are normally set directly each run, which is faster - that's what bindfields is for -
+	 * but once this is overridden, every parameter goes through it instead, so the rest should still be passed on to super)
 	 */
 	public void setParamVal(Class c, String pname, String pval) {
 		// TODO - assign values to parameter pname based on the value provided from file pval
@@ -59,6 +61,8 @@ public class ModelTemplate extends SimDataCollection{
 	/*
 	 * Optional!
 	 * Overrides Model#getResult to return the value for any output measures that need to be handled manually
+	 * (results that are fields are normally read directly, which is faster - that's what extractfields is for -
+	 * but once this is overridden, every result goes through it instead)
 	 */
 	public String getResult(String r, Object o, Class c) {
 		// to handle results at the model level
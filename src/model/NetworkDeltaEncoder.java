@@ -0,0 +1,115 @@
+package model;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+
+import sim.field.network.Edge;
+import sim.field.network.Network;
+import sim.util.Bag;
+
+/*
+ * Keeps track of the edges in a network at the last sample of a replicate, so that only the edges that were added or removed have to be written.
+ * The first sample (and every so many samples after that, if there are keyframes) is written out in full to the edgelist file, like usual,
+ * and the rest just go to the delta file as one row per change: add or remove, and then the edge's from, to, and info.
+ * (An edge that's written differently than it was at the last sample, because its ends or info were changed, even in place, is removed and added again.)
+ * Every sample ends with a row that says whether it was a Keyframe or a Delta and how many edges there were.
+ * NetworkDeltaReader puts the full edgelists back together.
+ */
+public class NetworkDeltaEncoder {
+
+	// what each change is written as
+	public static final String ADD = "add", REMOVE = "remove";
+
+	// how often to write out a full sample (0 just writes the first one)
+	public final int keyframe;
+	// every edge as of the last sample
+	private final IdentityHashMap<Edge, EdgeState> edges = new IdentityHashMap<Edge, EdgeState>();
+	// number of samples so far, and whether this one is a keyframe
+	private int samples = 0;
+	private boolean full;
+	// for writing rows
+	private final RowEncoder row;
+	private final RowEncoder text;
+
+	public NetworkDeltaEncoder(int keyframe, char sep, int precision) {
+		this.keyframe = keyframe;
+		this.row = new RowEncoder(sep, precision);
+		this.text = new RowEncoder(sep, precision);
+	}
+
+	/*
+	 * Goes through the network edge by edge (the same way getAdjacencyList does, but without copying it),
+	 * writing every edge to the edgelist if this is a keyframe, and otherwise just the changes to the delta file
+	 */
+	public void record(Network n, int s, long step, String params, Writer edgelist, Writer delta) throws IOException {
+		this.full = this.samples == 0 || (this.keyframe > 0 && this.samples%this.keyframe == 0);
+		this.samples++;
+		long total = 0;
+		Bag nodes = n.getAllNodes();
+		for(int i = 0; i < nodes.numObjs; i++) {
+			Bag out = n.getEdgesOut(nodes.objs[i]);
+			for(int j = 0; j < out.numObjs; j++) {
+				Edge e = (Edge) out.objs[j];
+				// make sure it's not trying to access a null edge, just in case
+				if(e == null) continue;
+				total++;
+				EdgeState st = this.edges.get(e);
+				if(st == null) {
+					st = new EdgeState();
+					this.edges.put(e, st);
+				}
+				if(st.sample != this.samples) {
+					st.sample = this.samples;
+					st.seen = 0;
+					// if it isn't written the same way it was before (even if its ends or info were only changed in place), the old one is gone
+					this.text.clear().add(e.getFrom()).add(e.getTo()).add(e.info);
+					if(!this.text.matches(0, this.text.length(), st.text)) {
+						write(s, step, params, REMOVE, st.text, st.count, delta);
+						st.count = 0;
+						st.text = this.text.toString();
+					}
+				}
+				st.seen++;
+				if(this.full) {
+					this.row.clear().add(s).add(step).append(params).append(st.text).append('\n').writeTo(edgelist);
+				} else if(st.seen > st.count) {
+					write(s, step, params, ADD, st.text, 1, delta);
+				}
+			}
+		}
+		// then anything that wasn't seen this time was removed
+		Iterator<EdgeState> it = this.edges.values().iterator();
+		while(it.hasNext()) {
+			EdgeState st = it.next();
+			if(st.sample != this.samples) st.seen = 0;
+			if(st.seen < st.count) write(s, step, params, REMOVE, st.text, st.count - st.seen, delta);
+			st.count = st.seen;
+			if(st.count == 0) it.remove();
+		}
+		this.row.clear().add(s).add(step).append(params).add(this.full ? AgentDeltaEncoder.KEYFRAME : AgentDeltaEncoder.DELTA)
+			.add(total).append(this.row.sep).append(this.row.sep).append('\n').writeTo(delta);
+	}
+
+	/*
+	 * Writes a change some number of times (unless this is a keyframe)
+	 */
+	private void write(int s, long step, String params, String change, String edge, int times, Writer delta) throws IOException {
+		if(this.full || edge == null) return;
+		for(int t = 0; t < times; t++) {
+			this.row.clear().add(s).add(step).append(params).add(change).append(edge).append('\n').writeTo(delta);
+		}
+	}
+
+	/*
+	 * What an edge was at the last sample: how it was written, and how many times it came up
+	 * (edges in undirected networks come up once for each end)
+	 */
+	private static class EdgeState {
+		String text;
+		int count = 0;
+		int seen = 0;
+		int sample = 0;
+	}
+}
@@ -0,0 +1,221 @@
+package model;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Puts the edgelists written with netdelta back together (see NetworkDeltaEncoder), one sample at a time,
+ * from the keyframes in the edgelist file and the edges added and removed in the delta file (either can be gzipped, but columnar files
+ * need to be converted back to text with ColumnarReader first).
+ * Can also be run on its own to write out every sample in full, like the edgelist file would have been without deltas
+ * (the same edges, but added edges come after the ones that were already there instead of in the network's order):
+ * 	java model.NetworkDeltaReader <edgelist file> <edge delta file> [<output file>]
+ * (with no output file, it writes to the edgelist file name with .full.txt on the end)
+ */
+public class NetworkDeltaReader implements Closeable {
+
+	// the separator between values
+	public final char sep;
+	// the comment lines and column names at the top of the edgelist file
+	public final String header;
+	// the number of parameter columns
+	private final int nparams;
+	private final BufferedReader keyframes;
+	private final BufferedReader deltas;
+	// the next line of the delta file, if it's been read already
+	private String pending;
+	// the current sample: its seed, parameter values (with separators, the same as in the files), and step
+	private String seed;
+	private String params;
+	private long step = -1;
+	// and the edges in it (as from, to, and info, each followed by the separator), with how many times each one comes up
+	private final LinkedHashMap<String, int[]> edges = new LinkedHashMap<String, int[]>();
+
+	/*
+	 * Opens both files and reads their headers
+	 */
+	public NetworkDeltaReader(String edgefile, String deltafile) throws IOException {
+		this.keyframes = AgentDeltaReader.open(edgefile);
+		this.deltas = AgentDeltaReader.open(deltafile);
+		StringBuilder head = new StringBuilder();
+		String edgecols = AgentDeltaReader.readHeader(this.keyframes, head);
+		String deltacols = AgentDeltaReader.readHeader(this.deltas, new StringBuilder());
+		if(edgecols == null || deltacols == null) {
+			close();
+			throw new IOException("Missing the header in " + (edgecols == null ? edgefile : deltafile));
+		}
+		this.header = head.toString();
+		this.sep = edgecols.charAt(edgecols.length() - 1);
+		// the edgelist has the seed, timestep, parameters, and then from, to, and info
+		this.nparams = AgentDeltaReader.split(edgecols, this.sep).length - 5;
+	}
+
+	public String seed() {
+		return this.seed;
+	}
+
+	public String params() {
+		return this.params;
+	}
+
+	public long step() {
+		return this.step;
+	}
+
+	/*
+	 * The edges in the current sample, each as its from, to, and info
+	 * (the edges that were already there come first, and then the ones added since, so this isn't necessarily the network's order)
+	 */
+	public List<String[]> edges() {
+		List<String[]> list = new ArrayList<String[]>();
+		for(Map.Entry<String, int[]> e : this.edges.entrySet()) {
+			String[] edge = AgentDeltaReader.split(e.getKey(), this.sep);
+			for(int i = 0; i < e.getValue()[0]; i++) {
+				list.add(edge);
+			}
+		}
+		return list;
+	}
+
+	/*
+	 * Moves on to the next sample (returns false once there aren't any more)
+	 */
+	public boolean next() throws IOException {
+		String line;
+		while((line = readDelta()) != null) {
+			String[] cells = AgentDeltaReader.split(line, this.sep);
+			String p = AgentDeltaReader.join(cells, 2, 2 + this.nparams, this.sep);
+			// a new replicate starts from scratch
+			if(!cells[0].equals(this.seed) || !p.equals(this.params)) {
+				this.edges.clear();
+				this.seed = cells[0];
+				this.params = p;
+			}
+			this.step = Long.parseLong(cells[1]);
+			String change = cells[2 + this.nparams];
+			if(change.equals(AgentDeltaEncoder.KEYFRAME)) {
+				// the whole thing is in the edgelist file
+				readKeyframe(Long.parseLong(cells[3 + this.nparams]));
+				return true;
+			} else if(change.equals(AgentDeltaEncoder.DELTA)) {
+				return true;
+			}
+			String edge = AgentDeltaReader.join(cells, 3 + this.nparams, 6 + this.nparams, this.sep);
+			if(change.equals(NetworkDeltaEncoder.ADD)) {
+				add(edge);
+			} else if(change.equals(NetworkDeltaEncoder.REMOVE)) {
+				int[] count = this.edges.get(edge);
+				if(count != null && --count[0] == 0) this.edges.remove(edge);
+			} else {
+				throw new IOException("Unknown change in the edge delta file: " + change);
+			}
+		}
+		return false;
+	}
+
+	/*
+	 * Moves on to the last sample of a replicate at or before a step (returns false if there isn't one)
+	 */
+	public boolean seek(String seed, String params, long step) throws IOException {
+		boolean found = false;
+		while(true) {
+			String line = readDelta();
+			if(line == null) return found;
+			this.pending = line;
+			String[] cells = AgentDeltaReader.split(line, this.sep);
+			boolean same = cells[0].equals(seed) && AgentDeltaReader.join(cells, 2, 2 + this.nparams, this.sep).equals(params);
+			// stop once it's moved past the step (or on to another replicate)
+			if(found && (!same || Long.parseLong(cells[1]) > step)) return true;
+			if(!next()) return found;
+			if(same && this.step <= step) found = true;
+		}
+	}
+
+	/*
+	 * Writes out the current sample in full, in the same layout as the edgelist file
+	 */
+	public void writeSample(Writer out) throws IOException {
+		for(Map.Entry<String, int[]> e : this.edges.entrySet()) {
+			for(int i = 0; i < e.getValue()[0]; i++) {
+				out.write(this.seed);
+				out.write(this.sep);
+				out.write(Long.toString(this.step));
+				out.write(this.sep);
+				out.write(this.params);
+				out.write(e.getKey());
+				out.write('\n');
+			}
+		}
+	}
+
+	/*
+	 * Writes out every sample in full, with the header from the edgelist file
+	 */
+	public void toText(Writer out) throws IOException {
+		out.write(this.header);
+		while(next()) {
+			writeSample(out);
+		}
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		try {
+			this.keyframes.close();
+		} finally {
+			this.deltas.close();
+		}
+	}
+
+	/*
+	 * Writes out every sample in full
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.out.println("Usage: java model.NetworkDeltaReader <edgelist file> <edge delta file> [<output file>]");
+			return;
+		}
+		String out = args.length > 2 ? args[2] : args[0].replaceAll("\\.txt(\\.gz)?$", "") + ".full.txt";
+		try(NetworkDeltaReader reader = new NetworkDeltaReader(args[0], args[1]);
+				Writer writer = out.equals("-") ? new OutputStreamWriter(System.out) : new BufferedWriter(new FileWriter(out))) {
+			reader.toText(writer);
+		}
+	}
+
+	private void add(String edge) {
+		int[] count = this.edges.get(edge);
+		if(count == null) this.edges.put(edge, new int[] {1});
+		else count[0]++;
+	}
+
+	/*
+	 * Replaces the edges with the next keyframe from the edgelist file
+	 */
+	private void readKeyframe(long n) throws IOException {
+		this.edges.clear();
+		for(long i = 0; i < n; i++) {
+			String line = this.keyframes.readLine();
+			if(line == null) throw new IOException("The edgelist file ends before the keyframe at step " + this.step);
+			String[] cells = AgentDeltaReader.split(line, this.sep);
+			add(AgentDeltaReader.join(cells, 2 + this.nparams, cells.length, this.sep));
+		}
+	}
+
+	private String readDelta() throws IOException {
+		if(this.pending != null) {
+			String line = this.pending;
+			this.pending = null;
+			return line;
+		}
+		return this.deltas.readLine();
+	}
+}
@@ -0,0 +1,125 @@
+package model;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+
+/*
+ * Puts results written with *normalize = true back into the usual layout, with the seed and parameter values on every row,
+ * by looking up each row's RunID in the design file (either file can be gzipped, but columnar files
+ * need to be converted back to text with ColumnarReader first).
+ * Works on any of the per-run results files, including the agent and network delta files.
+ * Can also be run on its own to write out a whole file:
+ * 	java model.NormalizedReader <design file> <results file> [<output file>]
+ * (with no output file, it writes to the results file name with .wide.txt on the end)
+ */
+public class NormalizedReader {
+
+	// the separator between values
+	public final char sep;
+	// the labels over the parameter columns, and the names of the parameters (each followed by the separator)
+	public final String labels;
+	public final String names;
+	// the seed and parameter values (as they go in a row) of each run
+	private final HashMap<String, String> runs = new HashMap<String, String>();
+
+	/*
+	 * Reads the design file
+	 */
+	public NormalizedReader(String designfile) throws IOException {
+		try(BufferedReader in = AgentDeltaReader.open(designfile)) {
+			StringBuilder head = new StringBuilder();
+			String cols = AgentDeltaReader.readHeader(in, head);
+			if(cols == null) throw new IOException("Missing the header in " + designfile);
+			this.sep = cols.charAt(cols.length() - 1);
+			// the line above the column names has the labels over the parameters after the ID, iteration, and seed
+			String[] lines = head.toString().split("\n");
+			String over = lines.length > 1 ? lines[lines.length - 2] : "";
+			this.labels = over.startsWith("% ") && over.length() >= 5 ? over.substring(5) : "";
+			String[] names = AgentDeltaReader.split(cols, this.sep);
+			this.names = AgentDeltaReader.join(names, 3, names.length, this.sep);
+			String line;
+			while((line = in.readLine()) != null) {
+				if(line.length() == 0 || line.charAt(0) == '%') continue;
+				int id = line.indexOf(this.sep);
+				int iter = id < 0 ? -1 : line.indexOf(this.sep, id + 1);
+				if(iter < 0) continue;
+				this.runs.put(line.substring(0, id), line.substring(iter + 1));
+			}
+		}
+	}
+
+	/*
+	 * The seed and parameter values of a run, each followed by the separator (null if the run isn't in the design)
+	 */
+	public String run(String id) {
+		return this.runs.get(id);
+	}
+
+	/*
+	 * Puts the seed and parameters back into a row in place of its RunID, with the parameters after the timestep if the row has one
+	 * (rows that don't start with a run in the design are left as they are)
+	 */
+	public String widen(String line, boolean time) {
+		int id = line.indexOf(this.sep);
+		if(id < 0) return line;
+		String run = this.runs.get(line.substring(0, id));
+		if(run == null) return line;
+		int seed = run.indexOf(this.sep) + 1;
+		// everything up through the timestep, and then the rest of the row
+		int start = time ? line.indexOf(this.sep, id + 1) + 1 : id + 1;
+		if(start == 0) return line;
+		return run.substring(0, seed) + line.substring(id + 1, start) + run.substring(seed) + line.substring(start);
+	}
+
+	/*
+	 * Writes out a whole results file in the usual layout, with the header it would have had
+	 */
+	public void toText(BufferedReader in, Writer out) throws IOException {
+		StringBuilder head = new StringBuilder();
+		String cols = AgentDeltaReader.readHeader(in, head);
+		if(cols == null) throw new IOException("Missing the header in the results file");
+		String[] lines = head.toString().split("\n", -1);
+		String[] names = AgentDeltaReader.split(cols, this.sep);
+		if(names.length == 0 || !names[0].equals("RunID")) throw new IOException("The results file isn't normalized (it doesn't start with RunID)");
+		boolean time = names.length > 1 && names[1].equals("Timestep");
+		int skip = time ? 2 : 1;
+		// the comment lines are the same, except that the labels and names of the parameters go back in
+		for(int i = 0; i < lines.length - 2; i++) {
+			String line = lines[i];
+			if(i == lines.length - 3) {
+				int r = line.lastIndexOf("Results");
+				if(r >= 0) line = line.substring(0, r) + this.labels + line.substring(r);
+			}
+			out.write(line);
+			out.write('\n');
+		}
+		out.write("Seed" + this.sep + AgentDeltaReader.join(names, 1, skip, this.sep) + this.names + AgentDeltaReader.join(names, skip, names.length, this.sep) + "\n");
+		String line;
+		while((line = in.readLine()) != null) {
+			out.write(widen(line, time));
+			out.write('\n');
+		}
+		out.flush();
+	}
+
+	/*
+	 * Writes out a whole results file in the usual layout
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 2) {
+			System.out.println("Usage: java model.NormalizedReader <design file> <results file> [<output file>]");
+			return;
+		}
+		String out = args.length > 2 ? args[2] : args[1].replaceAll("\\.txt(\\.gz)?$", "") + ".wide.txt";
+		NormalizedReader reader = new NormalizedReader(args[0]);
+		try(BufferedReader in = AgentDeltaReader.open(args[1]);
+				Writer writer = out.equals("-") ? new OutputStreamWriter(System.out) : new BufferedWriter(new FileWriter(out))) {
+			reader.toText(in, writer);
+		}
+	}
+}
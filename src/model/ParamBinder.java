@@ -0,0 +1,203 @@
+package model;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+
+/*
+ * Sets parameter and result fields for each replicate without going through reflection and parsing every time:
+ * each field is looked up once, and every value it can take on over the run is parsed up front.
+ * Anything that isn't a public field of a type it can handle is passed along to setParamVal instead, as before.
+ */
+public class ParamBinder {
+
+	// types of fields it can set directly (and values drawn randomly each time or handed off to setParamVal)
+	private static final int INT = 0, DOUBLE = 1, BOOLEAN = 2, CHAR = 3, STRING = 4, OTHER = 5;
+
+	// the model class it sets fields on
+	private final Class<?> subclass;
+	// parameter names, their types, setters, and all their possible values already parsed
+	private final String[] names;
+	private final int[] types;
+	private final MethodHandle[] setters;
+	private final int[][] ints;
+	private final double[][] doubles;
+	private final boolean[][] bools;
+	private final char[][] chars;
+	private final String[][] strings;
+	// which values are distributions to draw from each time, and which couldn't be parsed (and so are skipped)
+	private final boolean[][] draws;
+	private final boolean[][] invalid;
+	// results to reset to zero at the start of each replicate, and their setters (null for anything that isn't a field)
+	private final String[] resnames;
+	private final int[] restypes;
+	private final MethodHandle[] ressetters;
+	// the design the parameter values come from
+	private final DesignSpace design;
+
+	/*
+	 * Looks up all the parameter and result fields on the model class and parses all the values the parameters take on in the design
+	 */
+	public ParamBinder(SimDataCollection model, DesignSpace design) {
+		this.subclass = model.subclass;
+		this.design = design;
+		this.names = model.paramnames.clone();
+		int n = this.names.length;
+		this.types = new int[n];
+		this.setters = new MethodHandle[n];
+		this.ints = new int[n][];
+		this.doubles = new double[n][];
+		this.bools = new boolean[n][];
+		this.chars = new char[n][];
+		this.strings = new String[n][];
+		this.draws = new boolean[n][];
+		this.invalid = new boolean[n][];
+		for(int p = 0; p < n; p++) {
+			this.setters[p] = setter(this.names[p]);
+			this.types[p] = this.setters[p] == null ? OTHER : type(this.setters[p]);
+			String[] vals = design.values(p);
+			this.strings[p] = vals;
+			this.ints[p] = new int[vals.length];
+			this.doubles[p] = new double[vals.length];
+			this.bools[p] = new boolean[vals.length];
+			this.chars[p] = new char[vals.length];
+			this.draws[p] = new boolean[vals.length];
+			this.invalid[p] = new boolean[vals.length];
+			if(this.types[p] == OTHER) continue;
+			for(int v = 0; v < vals.length; v++) {
+				// if the value is instructions for drawing randomly, it'll have to be drawn each time
+				try {
+					if(Distribution.get(vals[v]) != null) {
+						this.draws[p][v] = true;
+						continue;
+					}
+				} catch(IllegalArgumentException e) {
+					// setParamVal won't draw it either, so it's just treated as a value
+				}
+				try {
+					parse(p, v, vals[v]);
+				} catch(NumberFormatException|StringIndexOutOfBoundsException e) {
+					System.out.println("Unable to set " + this.names[p] + " to " + vals[v] + ": Number Format Exception!");
+					this.invalid[p][v] = true;
+				}
+			}
+		}
+		this.resnames = model.resnames.clone();
+		this.restypes = new int[this.resnames.length];
+		this.ressetters = new MethodHandle[this.resnames.length];
+		for(int r = 0; r < this.resnames.length; r++) {
+			this.ressetters[r] = setter(this.resnames[r]);
+			this.restypes[r] = this.ressetters[r] == null ? OTHER : type(this.ressetters[r]);
+		}
+	}
+
+	/*
+	 * Sets all the results back to zero and the parameters to their values for the given replicate
+	 */
+	public void bind(SimDataCollection model, long u) {
+		try {
+			for(int r = 0; r < this.resnames.length; r++) {
+				switch(this.restypes[r]) {
+				case INT:
+					this.ressetters[r].invokeExact((Object) model, 0);
+					break;
+				case DOUBLE:
+					this.ressetters[r].invokeExact((Object) model, 0.0);
+					break;
+				case BOOLEAN:
+					this.ressetters[r].invokeExact((Object) model, false);
+					break;
+				case CHAR:
+					this.ressetters[r].invokeExact((Object) model, '0');
+					break;
+				case STRING:
+					this.ressetters[r].invokeExact((Object) model, (Object) "0");
+					break;
+				default:
+					model.setParamVal(this.subclass, this.resnames[r], "0");
+				}
+			}
+			for(int p = 0; p < this.names.length; p++) {
+				int v = this.design.valueOf(u, p);
+				if(this.types[p] == OTHER || this.draws[p][v]) {
+					// things it can't handle itself (including random draws) go through the usual route
+					model.setParamVal(this.subclass, this.names[p], this.strings[p][v]);
+					continue;
+				}
+				if(this.invalid[p][v]) continue;
+				switch(this.types[p]) {
+				case INT:
+					this.setters[p].invokeExact((Object) model, this.ints[p][v]);
+					break;
+				case DOUBLE:
+					this.setters[p].invokeExact((Object) model, this.doubles[p][v]);
+					break;
+				case BOOLEAN:
+					this.setters[p].invokeExact((Object) model, this.bools[p][v]);
+					break;
+				case CHAR:
+					this.setters[p].invokeExact((Object) model, this.chars[p][v]);
+					break;
+				case STRING:
+					this.setters[p].invokeExact((Object) model, (Object) this.strings[p][v]);
+					break;
+				}
+			}
+		} catch(Throwable e) {
+			throw new RuntimeException("Unable to set parameters", e);
+		}
+	}
+
+	/*
+	 * Parses a value for a parameter according to the type of its field, the same way setParamVal does
+	 */
+	private void parse(int p, int v, String val) {
+		switch(this.types[p]) {
+		case INT:
+			this.ints[p][v] = (int) Double.parseDouble(val);
+			break;
+		case DOUBLE:
+			this.doubles[p][v] = Double.parseDouble(val);
+			break;
+		case BOOLEAN:
+			// 0 and 1 stand for false and true
+			if(val.charAt(0) == '0') val = "false";
+			else if(val.charAt(0) == '1') val = "true";
+			this.bools[p][v] = Boolean.parseBoolean(val);
+			break;
+		case CHAR:
+			this.chars[p][v] = val.charAt(0);
+			break;
+		}
+	}
+
+	/*
+	 * Gets a setter for a public, non-static field of a type it can handle (taking the model as an Object), or null
+	 */
+	private MethodHandle setter(String name) {
+		try {
+			Field f = this.subclass.getField(name);
+			if(Modifier.isStatic(f.getModifiers()) || Modifier.isFinal(f.getModifiers())) return null;
+			Class<?> t = f.getType();
+			if(t != Integer.TYPE && t != Double.TYPE && t != Boolean.TYPE && t != Character.TYPE && t != String.class) return null;
+			if(t == String.class) t = Object.class;
+			return MethodHandles.publicLookup().unreflectSetter(f).asType(MethodType.methodType(void.class, Object.class, t));
+		} catch(NoSuchFieldException|IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	/*
+	 * The type of field a setter is for
+	 */
+	private static int type(MethodHandle setter) {
+		Class<?> t = setter.type().parameterType(1);
+		if(t == Integer.TYPE) return INT;
+		if(t == Double.TYPE) return DOUBLE;
+		if(t == Boolean.TYPE) return BOOLEAN;
+		if(t == Character.TYPE) return CHAR;
+		return STRING;
+	}
+}
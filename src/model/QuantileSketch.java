@@ -0,0 +1,189 @@
+package model;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/*
+ * Estimates quantiles of a stream of values without storing them, to within a relative error
+ * (following DDSketch: values are counted in buckets whose bounds grow geometrically, so every bucket is the same relative width).
+ * Sketches with the same accuracy can be merged by adding up their buckets, so quantiles can be combined across agents and replicates.
+ * To keep it small, it only keeps so many buckets on each side of zero, and lumps the smallest values together if it needs more than that.
+ */
+public class QuantileSketch implements Serializable {
+
+	// the most buckets it keeps for each sign
+	public static final int MAXBUCKETS = 2048;
+
+	// relative accuracy, and the ratio between the bounds of each bucket
+	public final double accuracy;
+	private final double gamma;
+	private final double loggamma;
+	// counts of positive values, negative values (by magnitude), and zeros
+	private final Store positive = new Store();
+	private final Store negative = new Store();
+	private long zeros = 0;
+
+	public QuantileSketch() {
+		this(.01);
+	}
+
+	public QuantileSketch(double accuracy) {
+		this.accuracy = accuracy;
+		this.gamma = (1 + accuracy)/(1 - accuracy);
+		this.loggamma = Math.log(this.gamma);
+	}
+
+	/*
+	 * Adds a value (NaNs and infinities are ignored)
+	 */
+	public void add(double x) {
+		if(Double.isNaN(x) || Double.isInfinite(x)) return;
+		if(x > Double.MIN_NORMAL) this.positive.add(index(x));
+		else if(x < -Double.MIN_NORMAL) this.negative.add(index(-x));
+		else this.zeros++;
+	}
+
+	/*
+	 * Adds all the values from another sketch (which should have the same accuracy)
+	 */
+	public void merge(QuantileSketch other) {
+		if(other.accuracy != this.accuracy) throw new IllegalArgumentException("Can only merge sketches with the same accuracy");
+		this.positive.merge(other.positive);
+		this.negative.merge(other.negative);
+		this.zeros += other.zeros;
+	}
+
+	/*
+	 * Goes back to having seen no values
+	 */
+	public void clear() {
+		this.positive.clear();
+		this.negative.clear();
+		this.zeros = 0;
+	}
+
+	public long count() {
+		return this.positive.total + this.negative.total + this.zeros;
+	}
+
+	/*
+	 * The value below which a proportion q of the values fall (NaN if there aren't any values)
+	 */
+	public double quantile(double q) {
+		long n = count();
+		if(n == 0) return Double.NaN;
+		long rank = (long) (Math.min(Math.max(q, 0), 1)*(n-1));
+		// negative values go from largest magnitude to smallest
+		if(rank < this.negative.total) {
+			return -value(this.negative.find(this.negative.total - 1 - rank));
+		}
+		rank -= this.negative.total;
+		if(rank < this.zeros) return 0;
+		rank -= this.zeros;
+		return value(this.positive.find(rank));
+	}
+
+	private int index(double x) {
+		return (int) Math.ceil(Math.log(x)/this.loggamma);
+	}
+
+	/*
+	 * The value in the middle of a bucket (relative to its bounds)
+	 */
+	private double value(int index) {
+		return 2*Math.pow(this.gamma, index)/(this.gamma + 1);
+	}
+
+	/*
+	 * Bucket counts for one sign, kept in an array that grows to cover the buckets in use
+	 */
+	private static class Store implements Serializable {
+		private long[] counts;
+		// the bucket index of the first spot in counts
+		private int offset;
+		private long total = 0;
+
+		void add(int index) {
+			add(index, 1);
+		}
+
+		void add(int index, long n) {
+			if(this.counts == null) {
+				this.counts = new long[64];
+				this.offset = index - 32;
+			}
+			if(index < this.offset || index >= this.offset + this.counts.length) index = grow(index);
+			this.counts[index - this.offset] += n;
+			this.total += n;
+		}
+
+		/*
+		 * Makes room for a bucket, returning the index it should actually go in
+		 * (if that would take more than the maximum number of buckets, the lowest ones are lumped together)
+		 */
+		private int grow(int index) {
+			int lo = this.offset;
+			int hi = this.offset + this.counts.length - 1;
+			// the range of buckets actually in use
+			int first = hi;
+			int last = lo;
+			for(int i = 0; i < this.counts.length; i++) {
+				if(this.counts[i] > 0) {
+					first = Math.min(first, i + this.offset);
+					last = Math.max(last, i + this.offset);
+				}
+			}
+			if(first > last) {
+				first = index;
+				last = index;
+			}
+			int newfirst = Math.min(first, index);
+			int newlast = Math.max(last, index);
+			if(newlast - newfirst + 1 > MAXBUCKETS) {
+				// keep the top buckets, and lump everything below them into the lowest one kept
+				int floor = newlast - MAXBUCKETS + 1;
+				long[] kept = new long[MAXBUCKETS];
+				for(int i = 0; i < this.counts.length; i++) {
+					if(this.counts[i] > 0) kept[Math.max(i + this.offset, floor) - floor] += this.counts[i];
+				}
+				this.counts = kept;
+				this.offset = floor;
+				return Math.max(index, floor);
+			}
+			// otherwise just make the array big enough (with some room to spare)
+			int size = Math.min(Math.max(this.counts.length*2, newlast - newfirst + 1 + 32), MAXBUCKETS);
+			int start = Math.max(newfirst - (size - (newlast - newfirst + 1))/2, newlast - size + 1);
+			long[] bigger = new long[size];
+			for(int i = 0; i < this.counts.length; i++) {
+				if(this.counts[i] > 0) bigger[i + this.offset - start] += this.counts[i];
+			}
+			this.counts = bigger;
+			this.offset = start;
+			return index;
+		}
+
+		void clear() {
+			if(this.counts != null) Arrays.fill(this.counts, 0);
+			this.total = 0;
+		}
+
+		void merge(Store other) {
+			if(other.counts == null) return;
+			for(int i = 0; i < other.counts.length; i++) {
+				if(other.counts[i] > 0) add(i + other.offset, other.counts[i]);
+			}
+		}
+
+		/*
+		 * The bucket holding the value with the given rank (counting up from the lowest bucket)
+		 */
+		int find(long rank) {
+			long seen = 0;
+			for(int i = 0; i < this.counts.length; i++) {
+				seen += this.counts[i];
+				if(seen > rank) return i + this.offset;
+			}
+			return this.offset + this.counts.length - 1;
+		}
+	}
+}
@@ -0,0 +1,273 @@
+package model;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+
+/*
+ * Gets the values of a set of results from objects of one class without going through reflection every time:
+ * each field is looked up once, and primitive fields are read as primitives (no boxing).
+ * Anything that isn't a public field (or isn't from an object of this class) goes to getResult instead, so overrides still work.
+ */
+public class ResultExtractor {
+
+	// how each result is read
+	public static final int INT = 0, LONG = 1, FLOAT = 2, DOUBLE = 3, BOOLEAN = 4, CHAR = 5, OBJECT = 6, CUSTOM = 7;
+
+	// the class the results are fields of
+	public final Class<?> c;
+	// result names, how they're read, and their getters (taking the object as an Object, null for custom)
+	public final String[] names;
+	public final int[] types;
+	private final MethodHandle[] getters;
+
+	/*
+	 * Looks up all the results as fields of the class (if compile is false, everything goes through getResult)
+	 */
+	public ResultExtractor(Class<?> c, String[] names, boolean compile) {
+		this.c = c;
+		this.names = names.clone();
+		this.types = new int[names.length];
+		this.getters = new MethodHandle[names.length];
+		for(int r = 0; r < names.length; r++) {
+			this.getters[r] = compile && c != null ? getter(names[r]) : null;
+			this.types[r] = this.getters[r] == null ? CUSTOM : type(this.getters[r]);
+		}
+	}
+
+	/*
+	 * Whether result r of object o can be read directly (otherwise it has to go through getResult)
+	 */
+	public boolean direct(int r, Object o) {
+		return this.types[r] != CUSTOM && this.c.isInstance(o);
+	}
+
+	/*
+	 * Gets result r of object o as a string, the same way getResult would
+	 */
+	public String get(SimDataCollection model, int r, Object o) {
+		if(o == null) return "";
+		if(!direct(r, o)) return model.getResult(this.names[r], o, this.c);
+		try {
+			switch(this.types[r]) {
+			case INT:
+				return Integer.toString((int) this.getters[r].invokeExact(o));
+			case LONG:
+				return Long.toString((long) this.getters[r].invokeExact(o));
+			case FLOAT:
+				return Float.toString((float) this.getters[r].invokeExact(o));
+			case DOUBLE:
+				return Double.toString((double) this.getters[r].invokeExact(o));
+			case BOOLEAN:
+				return Boolean.toString((boolean) this.getters[r].invokeExact(o));
+			case CHAR:
+				return Character.toString((char) this.getters[r].invokeExact(o));
+			default:
+				return format((Object) this.getters[r].invokeExact(o));
+			}
+		} catch(Throwable e) {
+			throw new RuntimeException("Unable to get " + this.names[r], e);
+		}
+	}
+
+	/*
+	 * Adds result r of object o to a row, writing primitives straight into it
+	 */
+	public void write(RowEncoder row, SimDataCollection model, int r, Object o) {
+		if(o == null || !direct(r, o)) {
+			String val = get(model, r, o);
+			// decimals that come back as text still get rounded to the precision
+			if(row.precision >= 0 && isDecimal(val)) row.add(Double.parseDouble(val));
+			else row.add(val);
+			return;
+		}
+		try {
+			switch(this.types[r]) {
+			case INT:
+				row.add((int) this.getters[r].invokeExact(o));
+				break;
+			case LONG:
+				row.add((long) this.getters[r].invokeExact(o));
+				break;
+			case FLOAT:
+				row.add((float) this.getters[r].invokeExact(o));
+				break;
+			case DOUBLE:
+				row.add((double) this.getters[r].invokeExact(o));
+				break;
+			case BOOLEAN:
+				row.add((boolean) this.getters[r].invokeExact(o));
+				break;
+			case CHAR:
+				row.add((char) this.getters[r].invokeExact(o));
+				break;
+			default:
+				row.add(format((Object) this.getters[r].invokeExact(o)));
+			}
+		} catch(Throwable e) {
+			throw new RuntimeException("Unable to get " + this.names[r], e);
+		}
+	}
+
+	/*
+	 * Reads numeric results directly as doubles (for anything else, it's NaN)
+	 */
+	public double getDouble(int r, Object o) {
+		try {
+			switch(this.types[r]) {
+			case INT:
+				return (int) this.getters[r].invokeExact(o);
+			case LONG:
+				return (long) this.getters[r].invokeExact(o);
+			case FLOAT:
+				return (float) this.getters[r].invokeExact(o);
+			case DOUBLE:
+				return (double) this.getters[r].invokeExact(o);
+			}
+		} catch(Throwable e) {
+			throw new RuntimeException("Unable to get " + this.names[r], e);
+		}
+		return Double.NaN;
+	}
+
+	/*
+	 * Gets result r of object o as a number for summarizing: true and false count as 1 and 0,
+	 * anything else that isn't a number is NaN
+	 */
+	public double getNumber(SimDataCollection model, int r, Object o) {
+		if(o == null) return Double.NaN;
+		if(direct(r, o)) {
+			switch(this.types[r]) {
+			case INT:
+			case LONG:
+			case FLOAT:
+			case DOUBLE:
+				return getDouble(r, o);
+			case BOOLEAN:
+				try {
+					return (boolean) this.getters[r].invokeExact(o) ? 1 : 0;
+				} catch(Throwable e) {
+					throw new RuntimeException("Unable to get " + this.names[r], e);
+				}
+			}
+		}
+		String val = get(model, r, o);
+		if(val.equals("true")) return 1;
+		if(val.equals("false")) return 0;
+		try {
+			return Double.parseDouble(val);
+		} catch(NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+
+	/*
+	 * Reads a result that's an object (for anything else, it's null)
+	 */
+	public Object getObject(int r, Object o) {
+		if(this.types[r] != OBJECT) return null;
+		try {
+			return (Object) this.getters[r].invokeExact(o);
+		} catch(Throwable e) {
+			throw new RuntimeException("Unable to get " + this.names[r], e);
+		}
+	}
+
+	/*
+	 * Adds list result r of object o to a row, element by element, without a separator after it
+	 * (or a summary of it instead, if there's a summary)
+	 */
+	public void writeList(RowEncoder row, SimDataCollection model, int r, Object o, ListSummary summary) {
+		Object val;
+		if(o != null && direct(r, o) && this.types[r] == OBJECT) {
+			val = getObject(r, o);
+		} else if(summary != null) {
+			// anything else has to be parsed back out of its string
+			val = ListSummary.parse(get(model, r, o));
+		} else if(row.precision >= 0) {
+			// the elements of a list that comes back as text still get rounded to the precision
+			String text = get(model, r, o);
+			if(!text.startsWith("[") || !text.endsWith("]")) {
+				row.append(text);
+				return;
+			}
+			ArrayList<Object> elements = new ArrayList<Object>();
+			if(text.length() > 2) {
+				for(String e : text.substring(1, text.length() - 1).split(", ")) {
+					elements.add(isDecimal(e) ? (Object) Double.parseDouble(e) : e);
+				}
+			}
+			row.appendList(elements);
+			return;
+		} else {
+			row.append(get(model, r, o));
+			return;
+		}
+		if(summary != null) summary.write(row, val);
+		else row.appendList(val);
+	}
+
+	/*
+	 * Whether a result that came back as text is a number with a decimal point (or an exponent)
+	 */
+	private static boolean isDecimal(String val) {
+		boolean point = false;
+		for(int i = 0; i < val.length(); i++) {
+			char ch = val.charAt(i);
+			if(ch == '.' || ch == 'e' || ch == 'E') point = true;
+			else if((ch < '0' || ch > '9') && ch != '-' && ch != '+') return false;
+		}
+		if(!point) return false;
+		try {
+			Double.parseDouble(val);
+			return true;
+		} catch(NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/*
+	 * Turns the value of a field into a string, listing out the contents of collections and arrays (including arrays of primitives)
+	 */
+	public static String format(Object val) {
+		if(val instanceof Collection || (val != null && val.getClass().isArray())) return new RowEncoder(',', -1).appendList(val).toString();
+		return "" + val;
+	}
+
+	/*
+	 * Gets a getter for a public field (taking the object as an Object and returning int, long, float, double, boolean, char, or Object), or null
+	 */
+	private MethodHandle getter(String name) {
+		try {
+			Field f = this.c.getField(name);
+			MethodHandle g = MethodHandles.publicLookup().unreflectGetter(f);
+			// static fields don't need the object, but take it anyway so everything can be called the same way
+			if(Modifier.isStatic(f.getModifiers())) g = MethodHandles.dropArguments(g, 0, Object.class);
+			Class<?> t = f.getType();
+			// bytes and shorts print the same as ints
+			if(t == Byte.TYPE || t == Short.TYPE) t = Integer.TYPE;
+			else if(!t.isPrimitive()) t = Object.class;
+			return g.asType(MethodType.methodType(t, Object.class));
+		} catch(NoSuchFieldException|IllegalAccessException e) {
+			return null;
+		}
+	}
+
+	/*
+	 * How a getter's result is read
+	 */
+	private static int type(MethodHandle getter) {
+		Class<?> t = getter.type().returnType();
+		if(t == Integer.TYPE) return INT;
+		if(t == Long.TYPE) return LONG;
+		if(t == Float.TYPE) return FLOAT;
+		if(t == Double.TYPE) return DOUBLE;
+		if(t == Boolean.TYPE) return BOOLEAN;
+		if(t == Character.TYPE) return CHAR;
+		return OBJECT;
+	}
+}
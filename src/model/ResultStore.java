@@ -0,0 +1,464 @@
+package model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/*
+ * Keeps all the results of a run in one file that can be read a piece at a time (with ResultStoreReader),
+ * so getting one combination of parameters or one seed out of a big run doesn't mean going through every results file.
+ * Each results file gets a level in the store, and takes in the same text rows the file does (so it can sit in front of any of them).
+ * Rows are kept together in blocks by level, combination of parameter values (design point), and seed, each block with the range of steps in it,
+ * and the footer indexes all of the blocks. Every block also says what's in it, so if the run is cut short before the footer is written,
+ * the index can still be put back together by going through the blocks (and a resumed run carries on from where the last one stopped).
+ *
+ * Layout: MAGIC, separator, number of parameters, records (levels and blocks), footer, position of the footer (8 bytes), MAGIC
+ * 	level: LEVEL, name, the comment lines and column names from the top of the text file
+ * 	block: BLOCK, level, design point (its parameter values as written in the rows), seed, first and last step, number of rows, length, the rows as text
+ * 	footer: FOOTER, the levels, the design points, and each block's level, point, seed, steps, rows, and where its rows are
+ */
+public class ResultStore implements Closeable {
+
+	public static final byte[] MAGIC = {'S', 'D', 'C', 'S'};
+	// kinds of records
+	public static final int LEVEL = 0, BLOCK = 1, FOOTER = 2;
+	// default most text in a block before it's written out
+	public static final int BLOCK_SIZE = 1 << 16;
+
+	// where it's writing to, and how far it's gotten
+	private final DataOutputStream out;
+	private long pos;
+	// the separator between values, and the number of parameter columns after the seed (and timestep)
+	public final char sep;
+	public final int nparams;
+	private final int blocksize;
+	// the levels by name, their headers, and the design points in the order they came up
+	private final ArrayList<String> levels = new ArrayList<String>();
+	private final ArrayList<String> headers = new ArrayList<String>();
+	private final ArrayList<String> points = new ArrayList<String>();
+	private final HashMap<String, Integer> pointindex = new HashMap<String, Integer>();
+	// every block written so far
+	private final ArrayList<Block> blocks = new ArrayList<Block>();
+	private boolean closed = false;
+
+	/*
+	 * Opens a store to write to (if append is true, it carries on from whatever blocks are already in the file)
+	 */
+	public ResultStore(String fname, char sep, int nparams, boolean append) throws IOException {
+		this(fname, sep, nparams, append, BLOCK_SIZE);
+	}
+
+	public ResultStore(String fname, char sep, int nparams, boolean append, int blocksize) throws IOException {
+		this.sep = sep;
+		this.nparams = nparams;
+		this.blocksize = blocksize;
+		File f = new File(fname);
+		if(append && f.length() > MAGIC.length) {
+			// read back what's already there, and cut off the footer (or anything only partly written) so new blocks can go on the end
+			try(RandomAccessFile file = new RandomAccessFile(f, "rw")) {
+				this.pos = scan(file, new long[2], this.levels, this.headers, this.points, this.blocks);
+				file.setLength(this.pos);
+			}
+			for(int p = 0; p < this.points.size(); p++) {
+				this.pointindex.put(this.points.get(p), p);
+			}
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f, true), 1 << 16));
+		} else {
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(f), 1 << 16));
+			this.out.write(MAGIC);
+			this.pos = MAGIC.length;
+			writeVarLong(sep);
+			writeVarLong(nparams);
+		}
+	}
+
+	/*
+	 * Opens a level of the store that also passes everything along to another writer (which can be null if it's only going in the store)
+	 */
+	public Writer level(String name, Writer next) {
+		return new Level(name, next);
+	}
+
+	/*
+	 * Writes the footer and closes the file
+	 */
+	public synchronized void close() throws IOException {
+		if(this.closed) return;
+		this.closed = true;
+		long footer = this.pos;
+		writeByte(FOOTER);
+		writeVarLong(this.levels.size());
+		for(int l = 0; l < this.levels.size(); l++) {
+			writeString(this.levels.get(l));
+			writeString(this.headers.get(l));
+		}
+		writeVarLong(this.points.size());
+		for(String p : this.points) {
+			writeString(p);
+		}
+		writeVarLong(this.blocks.size());
+		for(Block b : this.blocks) {
+			writeVarLong(b.level);
+			writeVarLong(b.point);
+			writeString(b.seed);
+			writeVarLong(zigzag(b.first));
+			writeVarLong(zigzag(b.last));
+			writeVarLong(b.rows);
+			writeVarLong(b.offset);
+			writeVarLong(b.length);
+		}
+		this.out.writeLong(footer);
+		this.out.write(MAGIC);
+		this.out.close();
+	}
+
+	public synchronized void flush() throws IOException {
+		this.out.flush();
+	}
+
+	/*
+	 * Adds a level (or finds it, if it's already there from a run being resumed)
+	 */
+	private synchronized int addLevel(String name, String header) throws IOException {
+		int l = this.levels.indexOf(name);
+		if(l >= 0) return l;
+		this.levels.add(name);
+		this.headers.add(header);
+		writeByte(LEVEL);
+		writeString(name);
+		writeString(header);
+		return this.levels.size() - 1;
+	}
+
+	/*
+	 * The header of a level that's already in the store (null if it isn't)
+	 */
+	private synchronized String findHeader(String name) {
+		int l = this.levels.indexOf(name);
+		return l < 0 ? null : this.headers.get(l);
+	}
+
+	/*
+	 * Writes out a block of rows
+	 */
+	private synchronized void writeBlock(int level, String point, String seed, long first, long last, int rows, byte[] text) throws IOException {
+		if(this.closed) throw new IOException("Results store already closed");
+		Integer p = this.pointindex.get(point);
+		if(p == null) {
+			p = this.points.size();
+			this.points.add(point);
+			this.pointindex.put(point, p);
+		}
+		writeByte(BLOCK);
+		writeVarLong(level);
+		writeString(point);
+		writeString(seed);
+		writeVarLong(zigzag(first));
+		writeVarLong(zigzag(last));
+		writeVarLong(rows);
+		writeVarLong(text.length);
+		this.blocks.add(new Block(level, p, seed, first, last, rows, this.pos, text.length));
+		this.out.write(text);
+		this.pos += text.length;
+	}
+
+	/*
+	 * Takes in the text rows for one results file: the comment lines and column names become the level's header,
+	 * and after that, rows go into blocks that are written out whenever the design point or seed changes (or they get big)
+	 */
+	private class Level extends Writer {
+
+		private final String name;
+		private final Writer next;
+		// the level's number in the store (once its header is in), and whether its rows have a timestep after the seed
+		private int level = -1;
+		private boolean time;
+		// the line currently coming in, and the header so far
+		private final StringBuilder line = new StringBuilder();
+		private final StringBuilder header = new StringBuilder();
+		// the rows in the current block, and what's in it
+		private final StringBuilder rows = new StringBuilder();
+		private String point;
+		private String seed;
+		private long first;
+		private long last;
+		private int count = 0;
+		private boolean closed = false;
+
+		Level(String name, Writer next) {
+			this.name = name;
+			this.next = next;
+			// a resumed run doesn't write headers again, so it picks up the one from last time
+			String head = findHeader(name);
+			if(head != null) start(head);
+		}
+
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			if(this.next != null) this.next.write(cbuf, off, len);
+			for(int i = off; i < off + len; i++) {
+				if(cbuf[i] == '\n') {
+					addLine();
+					this.line.setLength(0);
+				} else {
+					this.line.append(cbuf[i]);
+				}
+			}
+		}
+
+		public void write(String str, int off, int len) throws IOException {
+			if(this.next != null) this.next.write(str, off, len);
+			for(int i = off; i < off + len; i++) {
+				char c = str.charAt(i);
+				if(c == '\n') {
+					addLine();
+					this.line.setLength(0);
+				} else {
+					this.line.append(c);
+				}
+			}
+		}
+
+		private void start(String head) {
+			this.header.setLength(0);
+			this.header.append(head);
+			// the column names are the last line of the header
+			String[] lines = head.split("\n");
+			String[] cols = AgentDeltaReader.split(lines[lines.length - 1], sep);
+			this.time = cols.length > 1 && cols[1].equals("Timestep");
+		}
+
+		private void addLine() throws IOException {
+			if(this.level < 0) {
+				String head = findHeader(this.name);
+				if(head == null) {
+					this.header.append(this.line).append('\n');
+					// the first line that isn't a comment (or blank) is the column names
+					if(this.line.length() == 0 || this.line.charAt(0) == '%') return;
+					start(this.header.toString());
+				}
+				this.level = addLevel(this.name, this.header.toString());
+				if(head == null) return;
+			}
+			// pick out the seed, step, and parameter values (every value is followed by the separator)
+			String seed = "";
+			long step = -1;
+			int start = 0;
+			int cell = 0;
+			int pstart = -1;
+			int pend = -1;
+			int pfirst = this.time ? 2 : 1;
+			for(int i = 0; i < this.line.length() && cell < pfirst + nparams; i++) {
+				if(this.line.charAt(i) == sep) {
+					if(cell == 0) {
+						seed = this.line.substring(0, i);
+					} else if(cell == 1 && this.time) {
+						try {
+							step = Long.parseLong(this.line.substring(start, i));
+						} catch(NumberFormatException e) {
+							step = -1;
+						}
+					}
+					if(cell == pfirst - 1) pstart = i + 1;
+					cell++;
+					start = i + 1;
+					if(cell == pfirst + nparams) pend = i + 1;
+				}
+			}
+			String point = pstart >= 0 && pend >= 0 ? this.line.substring(pstart, pend) : "";
+			if(this.count > 0 && (!point.equals(this.point) || !seed.equals(this.seed) || this.rows.length() >= blocksize)) {
+				writeRows();
+			}
+			if(this.count == 0) {
+				this.point = point;
+				this.seed = seed;
+				this.first = step;
+				this.last = step;
+			}
+			this.first = Math.min(this.first, step);
+			this.last = Math.max(this.last, step);
+			this.rows.append(this.line).append('\n');
+			this.count++;
+		}
+
+		private void writeRows() throws IOException {
+			if(this.count == 0) return;
+			writeBlock(this.level, this.point, this.seed, this.first, this.last, this.count, this.rows.toString().getBytes(StandardCharsets.UTF_8));
+			this.rows.setLength(0);
+			this.count = 0;
+		}
+
+		/*
+		 * Writes out the current block (so everything so far is in the file, e.g. before a replicate is recorded in the journal)
+		 */
+		public void flush() throws IOException {
+			if(this.next != null) this.next.flush();
+			if(this.closed) return;
+			writeRows();
+			ResultStore.this.flush();
+		}
+
+		public void close() throws IOException {
+			if(this.closed) return;
+			try {
+				if(this.line.length() > 0) {
+					addLine();
+					this.line.setLength(0);
+				}
+				writeRows();
+			} finally {
+				this.closed = true;
+				if(this.next != null) this.next.close();
+			}
+		}
+	}
+
+	/*
+	 * A block of rows: its level, design point, seed, first and last step (-1 if the level doesn't have steps),
+	 * how many rows it has, and where its text is in the file
+	 */
+	public static class Block {
+		public final int level;
+		public final int point;
+		public final String seed;
+		public final long first;
+		public final long last;
+		public final int rows;
+		public final long offset;
+		public final int length;
+
+		public Block(int level, int point, String seed, long first, long last, int rows, long offset, int length) {
+			this.level = level;
+			this.point = point;
+			this.seed = seed;
+			this.first = first;
+			this.last = last;
+			this.rows = rows;
+			this.offset = offset;
+			this.length = length;
+		}
+	}
+
+	/*
+	 * Goes through the records in a store from the start to get its separator and number of parameters (in start),
+	 * and its levels, design points, and blocks, stopping at the footer or anything that wasn't completely written, and returns where that is
+	 */
+	static long scan(RandomAccessFile file, long[] start, ArrayList<String> levels, ArrayList<String> headers, ArrayList<String> points, ArrayList<Block> blocks) throws IOException {
+		file.seek(0);
+		DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(file.getChannel()), 1 << 16));
+		byte[] magic = new byte[MAGIC.length];
+		in.readFully(magic);
+		if(!new String(magic, StandardCharsets.US_ASCII).equals(new String(MAGIC, StandardCharsets.US_ASCII))) {
+			throw new IOException("Not a results store");
+		}
+		HashMap<String, Integer> pointindex = new HashMap<String, Integer>();
+		for(int p = 0; p < points.size(); p++) {
+			pointindex.put(points.get(p), p);
+		}
+		long length = file.length();
+		long[] at = {MAGIC.length};
+		start[0] = readVarLong(in, at);
+		start[1] = readVarLong(in, at);
+		long pos = at[0];
+		try {
+			while(at[0] < length) {
+				int kind = in.readUnsignedByte();
+				at[0]++;
+				if(kind == LEVEL) {
+					String name = readString(in, at);
+					String header = readString(in, at);
+					levels.add(name);
+					headers.add(header);
+				} else if(kind == BLOCK) {
+					int level = (int) readVarLong(in, at);
+					String point = readString(in, at);
+					String seed = readString(in, at);
+					long first = unzigzag(readVarLong(in, at));
+					long last = unzigzag(readVarLong(in, at));
+					int rows = (int) readVarLong(in, at);
+					int len = (int) readVarLong(in, at);
+					long offset = at[0];
+					if(offset + len > length || level >= levels.size()) break;
+					for(int skipped = 0; skipped < len; ) {
+						int n = in.skipBytes(len - skipped);
+						if(n <= 0) throw new EOFException();
+						skipped += n;
+					}
+					at[0] += len;
+					Integer p = pointindex.get(point);
+					if(p == null) {
+						p = points.size();
+						points.add(point);
+						pointindex.put(point, p);
+					}
+					blocks.add(new Block(level, p, seed, first, last, rows, offset, len));
+				} else {
+					break;
+				}
+				pos = at[0];
+			}
+		} catch(EOFException e) {
+			// the last record was only partly written
+		}
+		return pos;
+	}
+
+	static long readVarLong(DataInputStream in, long[] at) throws IOException {
+		long v = 0;
+		for(int shift = 0; ; shift += 7) {
+			int b = in.readUnsignedByte();
+			at[0]++;
+			v |= (long) (b & 0x7F) << shift;
+			if((b & 0x80) == 0) return v;
+		}
+	}
+
+	static String readString(DataInputStream in, long[] at) throws IOException {
+		byte[] b = new byte[(int) readVarLong(in, at)];
+		in.readFully(b);
+		at[0] += b.length;
+		return new String(b, StandardCharsets.UTF_8);
+	}
+
+	static long zigzag(long v) {
+		return (v << 1) ^ (v >> 63);
+	}
+
+	static long unzigzag(long v) {
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	private void writeByte(int b) throws IOException {
+		this.out.writeByte(b);
+		this.pos++;
+	}
+
+	/*
+	 * Writes a non-negative number 7 bits at a time
+	 */
+	private void writeVarLong(long v) throws IOException {
+		while((v & ~0x7FL) != 0) {
+			writeByte((int) ((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		writeByte((int) v);
+	}
+
+	private void writeString(String s) throws IOException {
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		writeVarLong(b.length);
+		this.out.write(b);
+		this.pos += b.length;
+	}
+}
@@ -0,0 +1,306 @@
+package model;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+
+/*
+ * Reads the results store written with *store = true (see ResultStore), going straight to the blocks for the level,
+ * design point, seed, and range of steps being asked for, without reading anything else.
+ * If the store doesn't have a footer (because the run was cut short), the index is put back together from the blocks themselves.
+ * Can also be run on its own to pull results out as text (with the same header as the results file):
+ * 	java model.ResultStoreReader <store file>
+ * 		lists the levels and design points in the store
+ * 	java model.ResultStoreReader <store file> <level> [<design point>] [<seed>] [<first step>] [<last step>] [<output file>]
+ * 		writes the rows for a level (e.g. timeresults), with * for any design point or seed, and without an output file it writes to the screen
+ * 		(design points are numbered from 0 in the order they're listed, and the steps include both ends)
+ */
+public class ResultStoreReader implements Closeable {
+
+	// the file
+	private final RandomAccessFile file;
+	// the separator between values, and the number of parameter columns in the rows
+	public final char sep;
+	public final int nparams;
+	// the levels, their headers, and the design points
+	private final ArrayList<String> levels = new ArrayList<String>();
+	private final ArrayList<String> headers = new ArrayList<String>();
+	private final ArrayList<String> points = new ArrayList<String>();
+	// the blocks for each level and design point (in the order they were written)
+	private final HashMap<Long, ArrayList<ResultStore.Block>> index = new HashMap<Long, ArrayList<ResultStore.Block>>();
+
+	/*
+	 * Opens a store and reads its index (throws an IOException if it isn't a results store)
+	 */
+	public ResultStoreReader(String fname) throws IOException {
+		this.file = new RandomAccessFile(fname, "r");
+		try {
+			ArrayList<ResultStore.Block> blocks = new ArrayList<ResultStore.Block>();
+			long len = this.file.length();
+			byte[] magic = new byte[ResultStore.MAGIC.length];
+			boolean complete = false;
+			if(len >= 2*magic.length + 9) {
+				this.file.seek(len - magic.length);
+				this.file.readFully(magic);
+				complete = Arrays.equals(magic, ResultStore.MAGIC);
+			}
+			long[] start = new long[2];
+			if(complete) {
+				this.file.seek(ResultStore.MAGIC.length);
+				DataInputStream in = new DataInputStream(Channels.newInputStream(this.file.getChannel()));
+				long[] at = {ResultStore.MAGIC.length};
+				start[0] = ResultStore.readVarLong(in, at);
+				start[1] = ResultStore.readVarLong(in, at);
+				this.file.seek(len - magic.length - 8);
+				long footer = this.file.readLong();
+				this.file.seek(footer);
+				in = new DataInputStream(Channels.newInputStream(this.file.getChannel()));
+				at[0] = footer;
+				if(in.readUnsignedByte() != ResultStore.FOOTER) throw new IOException(fname + " has a broken footer");
+				int nlevels = (int) ResultStore.readVarLong(in, at);
+				for(int l = 0; l < nlevels; l++) {
+					this.levels.add(ResultStore.readString(in, at));
+					this.headers.add(ResultStore.readString(in, at));
+				}
+				int npoints = (int) ResultStore.readVarLong(in, at);
+				for(int p = 0; p < npoints; p++) {
+					this.points.add(ResultStore.readString(in, at));
+				}
+				int nblocks = (int) ResultStore.readVarLong(in, at);
+				for(int b = 0; b < nblocks; b++) {
+					blocks.add(new ResultStore.Block((int) ResultStore.readVarLong(in, at), (int) ResultStore.readVarLong(in, at),
+							ResultStore.readString(in, at), ResultStore.unzigzag(ResultStore.readVarLong(in, at)),
+							ResultStore.unzigzag(ResultStore.readVarLong(in, at)), (int) ResultStore.readVarLong(in, at),
+							ResultStore.readVarLong(in, at), (int) ResultStore.readVarLong(in, at)));
+				}
+			} else {
+				// no footer (the run was cut short), so go through the blocks instead
+				ResultStore.scan(this.file, start, this.levels, this.headers, this.points, blocks);
+			}
+			this.sep = (char) start[0];
+			this.nparams = (int) start[1];
+			for(ResultStore.Block b : blocks) {
+				long key = key(b.level, b.point);
+				ArrayList<ResultStore.Block> list = this.index.get(key);
+				if(list == null) {
+					list = new ArrayList<ResultStore.Block>();
+					this.index.put(key, list);
+				}
+				list.add(b);
+			}
+		} catch(IOException e) {
+			this.file.close();
+			throw e;
+		}
+	}
+
+	/*
+	 * The names of the levels (the results files that went into the store, e.g. timeresults)
+	 */
+	public List<String> levels() {
+		return new ArrayList<String>(this.levels);
+	}
+
+	/*
+	 * The comment lines and column names from the top of a level's results file
+	 */
+	public String header(String level) {
+		return this.headers.get(level(level));
+	}
+
+	/*
+	 * The names of a level's columns
+	 */
+	public String[] columns(String level) {
+		return AgentDeltaReader.split(lastLine(header(level)), this.sep);
+	}
+
+	/*
+	 * The names of the parameters that make up a design point
+	 */
+	public String[] paramNames() {
+		if(this.levels.isEmpty()) return new String[0];
+		String[] cols = columns(this.levels.get(0));
+		int start = hasTime(0) ? 2 : 1;
+		return Arrays.copyOfRange(cols, start, Math.min(start + this.nparams, cols.length));
+	}
+
+	public int points() {
+		return this.points.size();
+	}
+
+	/*
+	 * The parameter values of a design point
+	 */
+	public String[] point(int p) {
+		return AgentDeltaReader.split(this.points.get(p), this.sep);
+	}
+
+	/*
+	 * Finds the design point with the given parameter values (in the same order as paramNames), or -1 if there isn't one
+	 */
+	public int findPoint(String... values) {
+		StringBuilder p = new StringBuilder();
+		for(String v : values) {
+			p.append(v).append(this.sep);
+		}
+		return this.points.indexOf(p.toString());
+	}
+
+	/*
+	 * The seeds run at a design point in a level
+	 */
+	public List<String> seeds(String level, int point) {
+		LinkedHashSet<String> seeds = new LinkedHashSet<String>();
+		ArrayList<ResultStore.Block> blocks = this.index.get(key(level(level), point));
+		if(blocks != null) {
+			for(ResultStore.Block b : blocks) {
+				seeds.add(b.seed);
+			}
+		}
+		return new ArrayList<String>(seeds);
+	}
+
+	/*
+	 * The rows of a level (as text, the same as in its results file) for a design point (-1 for all of them), seed (null for all of them),
+	 * and range of steps (including both ends, which are ignored for levels without steps)
+	 */
+	public List<String> rows(String level, int point, String seed, long from, long to) throws IOException {
+		ArrayList<String> rows = new ArrayList<String>();
+		int l = level(level);
+		boolean time = hasTime(l);
+		for(int p = point < 0 ? 0 : point; p < (point < 0 ? this.points.size() : point + 1); p++) {
+			ArrayList<ResultStore.Block> blocks = this.index.get(key(l, p));
+			if(blocks == null) continue;
+			for(ResultStore.Block b : blocks) {
+				if(seed != null && !seed.equals(b.seed)) continue;
+				// skip the whole block if none of its steps are in the range
+				if(time && (b.last < from || b.first > to)) continue;
+				String text = readBlock(b);
+				int start = 0;
+				for(int i = 0; i < text.length(); i++) {
+					if(text.charAt(i) != '\n') continue;
+					if(!time || (b.first >= from && b.last <= to) || inRange(text, start, from, to)) {
+						rows.add(text.substring(start, i));
+					}
+					start = i + 1;
+				}
+			}
+		}
+		return rows;
+	}
+
+	/*
+	 * The same rows split into their values
+	 */
+	public List<String[]> query(String level, int point, String seed, long from, long to) throws IOException {
+		List<String[]> cells = new ArrayList<String[]>();
+		for(String r : rows(level, point, seed, from, to)) {
+			cells.add(AgentDeltaReader.split(r, this.sep));
+		}
+		return cells;
+	}
+
+	/*
+	 * Writes out the rows the same way as query, with the level's header on top
+	 */
+	public void write(Writer out, String level, int point, String seed, long from, long to) throws IOException {
+		out.write(header(level));
+		for(String r : rows(level, point, seed, from, to)) {
+			out.write(r);
+			out.write('\n');
+		}
+		out.flush();
+	}
+
+	public void close() throws IOException {
+		this.file.close();
+	}
+
+	/*
+	 * Lists what's in a store, or writes out some of its rows
+	 */
+	public static void main(String[] args) throws IOException {
+		if(args.length < 1) {
+			System.out.println("Usage: java model.ResultStoreReader <store file> [<level> [<design point>] [<seed>] [<first step>] [<last step>] [<output file>]]");
+			return;
+		}
+		try(ResultStoreReader reader = new ResultStoreReader(args[0])) {
+			if(args.length == 1) {
+				System.out.println("Levels: " + String.join(" ", reader.levels));
+				System.out.println("Design points (" + String.join(", ", reader.paramNames()) + "):");
+				for(int p = 0; p < reader.points(); p++) {
+					System.out.println(p + ": " + String.join(", ", reader.point(p)));
+				}
+				return;
+			}
+			int point = args.length > 2 && !args[2].equals("*") ? Integer.parseInt(args[2]) : -1;
+			String seed = args.length > 3 && !args[3].equals("*") ? args[3] : null;
+			long from = args.length > 4 ? Long.parseLong(args[4]) : Long.MIN_VALUE;
+			long to = args.length > 5 ? Long.parseLong(args[5]) : Long.MAX_VALUE;
+			try(Writer writer = args.length > 6 ? new BufferedWriter(new FileWriter(args[6])) : new BufferedWriter(new OutputStreamWriter(System.out))) {
+				reader.write(writer, args[1], point, seed, from, to);
+			}
+		}
+	}
+
+	/*
+	 * The number of a level (throws an IllegalArgumentException if it isn't in the store)
+	 */
+	private int level(String level) {
+		int l = this.levels.indexOf(level);
+		if(l < 0) throw new IllegalArgumentException("No level called " + level + " in the store (it has " + String.join(", ", this.levels) + ")");
+		return l;
+	}
+
+	/*
+	 * Whether the rows of a level have a timestep after the seed
+	 */
+	private boolean hasTime(int l) {
+		String[] cols = AgentDeltaReader.split(lastLine(this.headers.get(l)), this.sep);
+		return cols.length > 1 && cols[1].equals("Timestep");
+	}
+
+	/*
+	 * Whether the step of a row (the second value) is in a range
+	 */
+	private boolean inRange(String text, int start, long from, long to) {
+		int a = text.indexOf(this.sep, start);
+		int b = a < 0 ? -1 : text.indexOf(this.sep, a + 1);
+		if(b < 0) return false;
+		try {
+			long step = Long.parseLong(text.substring(a + 1, b));
+			return step >= from && step <= to;
+		} catch(NumberFormatException e) {
+			return false;
+		}
+	}
+
+	private synchronized String readBlock(ResultStore.Block b) throws IOException {
+		byte[] bytes = new byte[b.length];
+		this.file.seek(b.offset);
+		this.file.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static String lastLine(String header) {
+		String[] lines = header.split("\n");
+		return lines.length == 0 ? "" : lines[lines.length - 1];
+	}
+
+	private static long key(int level, int point) {
+		return ((long) level << 32) | (point & 0xFFFFFFFFL);
+	}
+}
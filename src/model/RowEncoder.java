@@ -0,0 +1,308 @@
+package model;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Array;
+import java.util.Collection;
+
+/*
+ * Builds rows of results in a reusable buffer, so writing a row doesn't create a string for every value in it.
+ * Each value is followed by the separator (just like the results files have always been written),
+ * and numbers are formatted straight into the buffer. Doubles are written in full (the same as Double.toString),
+ * or rounded to a fixed number of decimal places to make the files smaller.
+ */
+public class RowEncoder {
+
+	// powers of 10 for rounding to a fixed precision
+	private static final double[] POW10 = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18};
+
+	// the separator after each value
+	public final char sep;
+	// number of decimal places to round doubles to (negative to write them in full)
+	public final int precision;
+	// the row so far
+	private char[] buf = new char[256];
+	private int len = 0;
+
+	public RowEncoder(char sep, int precision) {
+		this.sep = sep;
+		this.precision = Math.min(precision, POW10.length-1);
+	}
+
+	/*
+	 * Starts a new row
+	 */
+	public RowEncoder clear() {
+		this.len = 0;
+		return this;
+	}
+
+	public int length() {
+		return this.len;
+	}
+
+	/*
+	 * Adds an int, followed by the separator
+	 */
+	public RowEncoder add(int val) {
+		return add((long) val);
+	}
+
+	/*
+	 * Adds a long, followed by the separator
+	 */
+	public RowEncoder add(long val) {
+		number(val);
+		ensure(1);
+		this.buf[this.len++] = this.sep;
+		return this;
+	}
+
+	/*
+	 * Adds a double (rounded to the precision if there is one), followed by the separator
+	 */
+	public RowEncoder add(double val) {
+		number(val);
+		ensure(1);
+		this.buf[this.len++] = this.sep;
+		return this;
+	}
+
+	/*
+	 * Adds a float (rounded to the precision if there is one), followed by the separator
+	 */
+	public RowEncoder add(float val) {
+		if(this.precision < 0) return add(Float.toString(val));
+		return add((double) val);
+	}
+
+	public RowEncoder add(boolean val) {
+		return add(val ? "true" : "false");
+	}
+
+	public RowEncoder add(char val) {
+		ensure(2);
+		this.buf[this.len++] = val;
+		this.buf[this.len++] = this.sep;
+		return this;
+	}
+
+	/*
+	 * Adds a string (or any other object as a string), followed by the separator
+	 */
+	public RowEncoder add(Object val) {
+		append(String.valueOf(val));
+		ensure(1);
+		this.buf[this.len++] = this.sep;
+		return this;
+	}
+
+	/*
+	 * Adds a collection or array element by element, in the same form as Arrays.toString ([a, b, c]) but without copying it first,
+	 * and without a separator after it (that's how lists have always been written). Numbers are formatted like any others,
+	 * lists inside the list are written out the same way, and anything else is just written as a string.
+	 */
+	public RowEncoder appendList(Object val) {
+		if(val instanceof Collection) {
+			append('[');
+			boolean first = true;
+			for(Object e : (Collection<?>) val) {
+				if(!first) append(", ");
+				first = false;
+				element(e);
+			}
+			return append(']');
+		}
+		if(val == null || !val.getClass().isArray()) return append(String.valueOf(val));
+		append('[');
+		if(val instanceof double[]) {
+			double[] a = (double[]) val;
+			for(int i = 0; i < a.length; i++) {
+				if(i > 0) append(", ");
+				number(a[i]);
+			}
+		} else if(val instanceof int[]) {
+			int[] a = (int[]) val;
+			for(int i = 0; i < a.length; i++) {
+				if(i > 0) append(", ");
+				number(a[i]);
+			}
+		} else if(val instanceof long[]) {
+			long[] a = (long[]) val;
+			for(int i = 0; i < a.length; i++) {
+				if(i > 0) append(", ");
+				number(a[i]);
+			}
+		} else if(val instanceof float[]) {
+			float[] a = (float[]) val;
+			for(int i = 0; i < a.length; i++) {
+				if(i > 0) append(", ");
+				number(a[i]);
+			}
+		} else if(val instanceof Object[]) {
+			Object[] a = (Object[]) val;
+			for(int i = 0; i < a.length; i++) {
+				if(i > 0) append(", ");
+				element(a[i]);
+			}
+		} else {
+			// the rest of the primitives (boolean, char, byte, short) are rare enough to just go through the usual string
+			int n = Array.getLength(val);
+			for(int i = 0; i < n; i++) {
+				if(i > 0) append(", ");
+				append(String.valueOf(Array.get(val, i)));
+			}
+		}
+		return append(']');
+	}
+
+	/*
+	 * Adds one element of a list (without a separator)
+	 */
+	private void element(Object e) {
+		if(e instanceof Double) number((double) (Double) e);
+		else if(e instanceof Float) number((float) (Float) e);
+		else if(e instanceof Integer || e instanceof Long) number(((Number) e).longValue());
+		else if(e instanceof Collection || (e != null && e.getClass().isArray())) appendList(e);
+		else append(String.valueOf(e));
+	}
+
+	/*
+	 * Writes a long without a separator
+	 */
+	private void number(long val) {
+		if(val == Long.MIN_VALUE) {
+			append(Long.toString(val));
+			return;
+		}
+		ensure(21);
+		if(val < 0) {
+			this.buf[this.len++] = '-';
+			val = -val;
+		}
+		digits(val, 1);
+	}
+
+	private void number(float val) {
+		if(this.precision < 0) append(Float.toString(val));
+		else number((double) val);
+	}
+
+	/*
+	 * Writes a double (rounded to the precision if there is one) without a separator
+	 */
+	private void number(double val) {
+		if(this.precision < 0 || Double.isNaN(val) || Double.isInfinite(val) || Math.abs(val) >= 1e15) {
+			append(Double.toString(val));
+			return;
+		}
+		long scaled = Math.round(Math.abs(val)*POW10[this.precision]);
+		// anything that can't be rounded accurately is written in full
+		if(scaled >= 1e17) {
+			append(Double.toString(val));
+			return;
+		}
+		ensure(40);
+		if(val < 0 && scaled != 0) this.buf[this.len++] = '-';
+		long whole = scaled/(long) POW10[this.precision];
+		long frac = scaled%(long) POW10[this.precision];
+		digits(whole, 1);
+		if(frac != 0) {
+			// drop trailing zeros from the decimal places
+			int places = this.precision;
+			while(frac%10 == 0) {
+				frac /= 10;
+				places--;
+			}
+			this.buf[this.len++] = '.';
+			digits(frac, places);
+		}
+	}
+
+	/*
+	 * Adds text as is, without a separator (e.g. the parameter values, which already have them, or the end of the line)
+	 */
+	public RowEncoder append(String val) {
+		int n = val.length();
+		ensure(n);
+		val.getChars(0, n, this.buf, this.len);
+		this.len += n;
+		return this;
+	}
+
+	public RowEncoder append(char val) {
+		ensure(1);
+		this.buf[this.len++] = val;
+		return this;
+	}
+
+	/*
+	 * Adds part of another row (from one position up to another)
+	 */
+	public RowEncoder append(RowEncoder other, int from, int to) {
+		int n = to - from;
+		ensure(n);
+		System.arraycopy(other.buf, from, this.buf, this.len, n);
+		this.len += n;
+		return this;
+	}
+
+	/*
+	 * Whether part of the row (from one position up to another) is the same as some text
+	 */
+	public boolean matches(int from, int to, String val) {
+		int n = to - from;
+		if(val == null || val.length() != n) return false;
+		for(int i = 0; i < n; i++) {
+			if(this.buf[from + i] != val.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	/*
+	 * Gets part of the row (from one position up to another) as a string
+	 */
+	public String substring(int from, int to) {
+		return new String(this.buf, from, to - from);
+	}
+
+	/*
+	 * Writes the row out
+	 */
+	public void writeTo(Writer writer) throws IOException {
+		writer.write(this.buf, 0, this.len);
+	}
+
+	public String toString() {
+		return new String(this.buf, 0, this.len);
+	}
+
+	/*
+	 * Writes the digits of a non-negative number, padded with zeros to at least width digits
+	 */
+	private void digits(long val, int width) {
+		int start = this.len;
+		do {
+			this.buf[this.len++] = (char) ('0' + val%10);
+			val /= 10;
+			width--;
+		} while(val > 0 || width > 0);
+		// they came out backwards
+		for(int i = start, j = this.len-1; i < j; i++, j--) {
+			char tmp = this.buf[i];
+			this.buf[i] = this.buf[j];
+			this.buf[j] = tmp;
+		}
+	}
+
+	/*
+	 * Makes sure there's room for n more characters
+	 */
+	private void ensure(int n) {
+		if(this.len + n > this.buf.length) {
+			char[] bigger = new char[Math.max(this.buf.length*2, this.len + n)];
+			System.arraycopy(this.buf, 0, bigger, 0, this.len);
+			this.buf = bigger;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package model;
+
+import java.io.Serializable;
+
+import sim.util.distribution.Probability;
+
+/*
+ * Keeps track of the count, mean, variance, minimum, and maximum of a stream of values without storing them
+ * (using Welford's algorithm), and can be merged with another set of stats on a different part of the stream.
+ */
+public class RunningStats implements Serializable {
+
+	// number of values so far
+	private long n = 0;
+	// their mean
+	private double mean = 0;
+	// sum of squared differences from the mean
+	private double m2 = 0;
+	// smallest and largest values so far
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	/*
+	 * Adds a value to the stream (NaNs are ignored)
+	 */
+	public void add(double x) {
+		if(Double.isNaN(x)) return;
+		this.n++;
+		double d = x - this.mean;
+		this.mean += d/this.n;
+		this.m2 += d*(x - this.mean);
+		this.min = Math.min(this.min, x);
+		this.max = Math.max(this.max, x);
+	}
+
+	/*
+	 * Adds all the values from another set of stats, as if they had been added here
+	 */
+	public void merge(RunningStats other) {
+		if(other.n == 0) return;
+		if(this.n == 0) {
+			this.n = other.n;
+			this.mean = other.mean;
+			this.m2 = other.m2;
+			this.min = other.min;
+			this.max = other.max;
+			return;
+		}
+		long total = this.n + other.n;
+		double d = other.mean - this.mean;
+		this.mean += d*other.n/total;
+		this.m2 += other.m2 + d*d*this.n*other.n/total;
+		this.n = total;
+		this.min = Math.min(this.min, other.min);
+		this.max = Math.max(this.max, other.max);
+	}
+
+	/*
+	 * Goes back to having seen no values
+	 */
+	public void clear() {
+		this.n = 0;
+		this.mean = 0;
+		this.m2 = 0;
+		this.min = Double.POSITIVE_INFINITY;
+		this.max = Double.NEGATIVE_INFINITY;
+	}
+
+	public long count() {
+		return this.n;
+	}
+
+	public double mean() {
+		return this.n > 0 ? this.mean : Double.NaN;
+	}
+
+	/*
+	 * The sample variance (NaN for fewer than two values)
+	 */
+	public double variance() {
+		return this.n > 1 ? this.m2/(this.n-1) : Double.NaN;
+	}
+
+	public double min() {
+		return this.n > 0 ? this.min : Double.NaN;
+	}
+
+	public double max() {
+		return this.n > 0 ? this.max : Double.NaN;
+	}
+
+	/*
+	 * Half the width of the confidence interval around the mean at the given level (e.g. .95),
+	 * using the t distribution (infinite for fewer than two values)
+	 */
+	public double halfWidth(double level) {
+		if(this.n < 2) return Double.POSITIVE_INFINITY;
+		return Probability.studentTInverse(1-level, (int) Math.min(this.n-1, Integer.MAX_VALUE))*Math.sqrt(variance()/this.n);
+	}
+}
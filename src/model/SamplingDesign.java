@@ -0,0 +1,188 @@
+package model;
+
+import ec.util.MersenneTwisterFast;
+
+/*
+ * Space-filling designs for drawing random parameters, which cover the parameter space more evenly than independent draws.
+ * Each design is a set of points in the unit hypercube (one row per random iteration, one column per random parameter),
+ * which can then be mapped onto each parameter's distribution.
+ */
+public class SamplingDesign {
+
+	// Sobol direction numbers from Joe and Kuo (2008) for dimensions 2 and up:
+	// degree of the primitive polynomial, its coefficients, and the initial direction numbers
+	private static final int[][] SOBOL = {
+			{1, 0, 1},
+			{2, 1, 1, 3},
+			{3, 1, 1, 3, 1},
+			{3, 2, 1, 1, 1},
+			{4, 1, 1, 1, 3, 3},
+			{4, 4, 1, 3, 5, 13},
+			{5, 2, 1, 1, 5, 5, 17},
+			{5, 4, 1, 1, 5, 5, 5},
+			{5, 7, 1, 1, 7, 11, 19},
+			{5, 11, 1, 1, 5, 1, 1},
+			{5, 13, 1, 1, 1, 3, 11},
+			{5, 14, 1, 3, 5, 5, 31},
+			{6, 1, 1, 3, 3, 9, 7, 49},
+			{6, 13, 1, 1, 1, 15, 21, 21},
+			{6, 16, 1, 3, 1, 13, 27, 49},
+			{6, 19, 1, 1, 1, 15, 7, 5},
+			{6, 22, 1, 3, 1, 15, 13, 25},
+			{6, 25, 1, 1, 5, 5, 19, 61},
+			{7, 1, 1, 3, 7, 11, 23, 15, 103},
+			{7, 4, 1, 3, 7, 13, 13, 15, 69}};
+	// the number of bits used for each coordinate of a Sobol point
+	private static final int BITS = 32;
+
+	/*
+	 * Generates n points in d dimensions with the named design (lhs, sobol, or halton),
+	 * returns null for independent random draws (random or blank) and throws an exception for anything else
+	 */
+	public static double[][] generate(String method, MersenneTwisterFast random, int n, int d) {
+		switch(method.trim().toLowerCase()) {
+		case "":
+		case "random":
+			return null;
+		case "lhs":
+			return latinHypercube(random, n, d);
+		case "sobol":
+			// there are only so many direction numbers, so fall back on Halton for more dimensions than that
+			if(d > SOBOL.length + 1) {
+				System.out.println("Sobol sampling only goes up to " + (SOBOL.length + 1) + " random parameters, using Halton instead.");
+				return halton(n, d);
+			}
+			return sobol(n, d);
+		case "halton":
+			return halton(n, d);
+		}
+		throw new IllegalArgumentException("Unknown sampling method: " + method);
+	}
+
+	/*
+	 * Latin hypercube: each dimension is split into n equal strata, and each stratum is used by exactly one point,
+	 * with the strata of different dimensions paired up at random and each point placed at random within its stratum
+	 */
+	public static double[][] latinHypercube(MersenneTwisterFast random, int n, int d) {
+		double[][] points = new double[n][d];
+		int[] strata = new int[n];
+		for(int j = 0; j < d; j++) {
+			// shuffle the strata for this dimension
+			for(int i = 0; i < n; i++) {
+				strata[i] = i;
+			}
+			for(int i = n-1; i > 0; i--) {
+				int k = random.nextInt(i+1);
+				int tmp = strata[i];
+				strata[i] = strata[k];
+				strata[k] = tmp;
+			}
+			for(int i = 0; i < n; i++) {
+				points[i][j] = (strata[i] + random.nextDouble(false, false))/n;
+			}
+		}
+		return points;
+	}
+
+	/*
+	 * Sobol sequence (skipping the first point, which is all zeros), generated in Gray code order
+	 */
+	public static double[][] sobol(int n, int d) {
+		double[][] points = new double[n][d];
+		for(int j = 0; j < d; j++) {
+			long[] v = directionNumbers(j);
+			long x = 0;
+			// point i comes from point i-1 by flipping in the direction number of the lowest zero bit of i-1
+			for(int i = 0; i <= n; i++) {
+				if(i > 0) {
+					points[i-1][j] = clamp(x/(double) (1L << BITS));
+				}
+				x ^= v[Long.numberOfTrailingZeros(~(long) i)];
+			}
+		}
+		return points;
+	}
+
+	/*
+	 * The direction numbers for a dimension of the Sobol sequence (numbered from 0)
+	 */
+	private static long[] directionNumbers(int j) {
+		long[] v = new long[BITS];
+		if(j == 0) {
+			// the first dimension is just the van der Corput sequence in base 2
+			for(int i = 0; i < BITS; i++) {
+				v[i] = 1L << (BITS-1-i);
+			}
+			return v;
+		}
+		int[] poly = SOBOL[j-1];
+		int s = poly[0];
+		int a = poly[1];
+		for(int i = 0; i < s && i < BITS; i++) {
+			v[i] = ((long) poly[i+2]) << (BITS-1-i);
+		}
+		// the rest follow from the recurrence given by the polynomial
+		for(int i = s; i < BITS; i++) {
+			v[i] = v[i-s] ^ (v[i-s] >> s);
+			for(int k = 1; k < s; k++) {
+				if(((a >> (s-1-k)) & 1) == 1) {
+					v[i] ^= v[i-k];
+				}
+			}
+		}
+		return v;
+	}
+
+	/*
+	 * Halton sequence (skipping the first point, which is all zeros), using the first d primes as bases
+	 */
+	public static double[][] halton(int n, int d) {
+		double[][] points = new double[n][d];
+		int base = 1;
+		for(int j = 0; j < d; j++) {
+			base = nextPrime(base);
+			for(int i = 0; i < n; i++) {
+				points[i][j] = clamp(radicalInverse(i+1, base));
+			}
+		}
+		return points;
+	}
+
+	/*
+	 * Reflects the digits of i in the given base around the decimal point
+	 */
+	private static double radicalInverse(long i, int base) {
+		double inv = 1.0/base;
+		double f = inv;
+		double r = 0;
+		while(i > 0) {
+			r += f*(i%base);
+			i /= base;
+			f *= inv;
+		}
+		return r;
+	}
+
+	/*
+	 * The smallest prime greater than p
+	 */
+	private static int nextPrime(int p) {
+		for(int c = p+1; ; c++) {
+			boolean prime = true;
+			for(int k = 2; k*k <= c; k++) {
+				if(c%k == 0) {
+					prime = false;
+					break;
+				}
+			}
+			if(prime) return c;
+		}
+	}
+
+	/*
+	 * Keeps a point strictly inside the unit interval so that it can be mapped through any inverse distribution function
+	 */
+	private static double clamp(double u) {
+		return Math.min(Math.max(u, 0x1p-53), 1 - 0x1p-53);
+	}
+}
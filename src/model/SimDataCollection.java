@@ -7,18 +7,39 @@ package model;
 
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
+import java.io.FileOutputStream;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
 import java.lang.reflect.Array;
+import java.nio.file.Files;
 import java.lang.reflect.Field;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 import ec.util.MersenneTwisterFast;
 import sim.engine.*;
@@ -41,22 +62,111 @@ public abstract class SimDataCollection extends SimState  {
 	// initialize empty array of distributions to draw randomly from
 	public ArrayList<String> randdists = new ArrayList<String>();
 	// file writer for the end of run results
-	public BufferedWriter endwriter;
+	public transient BufferedWriter endwriter;
+	// writes the results files on a separate thread (if async is true)
+	protected transient AsyncWritePipeline writepipe;
+	// for summarizing agent results instead of writing them all out (if aggregate is true):
+	// the file, the quantiles to write, the summary of this replicate, and the merged summary of the current combination of parameters
+	public transient BufferedWriter summarywriter;
+	protected double[] quantilevals;
+	public transient AgentSummary summary;
+	protected transient AgentSummary pointsummary;
+	protected transient long summarypoint = -1;
+	protected transient String summaryparams;
+	// for writing only the agent results that changed (if agentdelta is true):
+	// what the agents were at the last sample of this replicate, and where each value is in the agent row
+	protected transient AgentDeltaEncoder delta;
+	protected transient int[] agentbounds;
+	// what each network was at the last sample of this replicate (if netdelta is true)
+	protected transient NetworkDeltaEncoder[] netdeltas;
+	// the panel of agents to write results for (if agentsample isn't blank), what it's stratified by, and the last step it was updated
+	protected transient AgentSampler sampler;
+	protected transient ResultExtractor strataextractor;
+	protected transient long sampledstep = -1;
+	// the last step results were written at in this replicate (so a run that stops right after writing them doesn't write them twice)
+	protected transient long writtenstep = -1;
+	// for summarizing list results instead of writing them out in full (if listsummary isn't blank)
+	protected transient ListSummary listsum;
 	// file writer for timecourse results taken at the indicated interval
-	public BufferedWriter timewriter;
+	public transient BufferedWriter timewriter;
 	// file writer for individual agent results (only created if results are provided to be taken)
-	public BufferedWriter agentwriter;
+	public transient BufferedWriter agentwriter;
+	// and the changes in agent results between samples (if agentdelta is true)
+	public transient BufferedWriter deltawriter;
+	// all the results in one file that can be read by design point, seed, and step (if store is true)
+	protected transient ResultStore resultstore;
 	// list of file writers for edgelists (only created if networks are provided to get edgelists from)
-	public BufferedWriter[] netwriters;
+	public transient BufferedWriter[] netwriters;
+	// and for the edges added and removed between samples (if netdelta is true)
+	public transient BufferedWriter[] netdeltawriters;
 	// file writer for list results at the model level
-	public BufferedWriter listwriter;
+	public transient BufferedWriter listwriter;
 	// file writer for list results at the agent level
-	public BufferedWriter agentlistwriter;
+	public transient BufferedWriter agentlistwriter;
+	// pool of threads for running replicates in parallel (only created if threads isn't 1)
+	protected transient ExecutorService workers;
+	// results of parallel runs waiting to be written to file in order
+	protected transient ArrayDeque<Replicate> pending;
+	// the copy of the model each worker thread runs on, and how many finished runs can wait to be written
+	protected transient ThreadLocal<SimDataCollection> workermodels;
+	protected transient int maxpending;
+	protected transient int nworkers;
+	// which shard of the whole run (numbered from 0) this process is responsible for, and out of how many
+	public int shardnum = 0;
+	public int shardcount = 1;
+	// index of the current random iteration and the next replicate across the whole run
+	public int iteration = 0;
+	public long unit = 0;
+	// number of replicates finished (including any finished by a previous run that's being resumed)
+	public long done = 0;
+	// end results used to decide when there have been enough replicates (only used if minreps is above 0)
+	public String[] convres;
+	// stats on those results for the current combination of parameter values, and which one that is
+	protected transient RunningStats[] convstats;
+	protected transient long statspoint = -1;
+	// the last combination of parameter values that has had enough replicates
+	protected transient long convergedpoint = -1;
+	// conditions for ending a simulation early (parsed from stop)
+	public StopCondition[] stops = new StopCondition[0];
+	// whether to record when and why each simulation stopped (only if there are stop conditions or checkStop has been overridden)
+	public boolean recordstop = false;
+	// the step the current simulation stopped at and why
+	public long stopstep;
+	public String stopreason;
+	// indices of the parameters that are only set after the burn-in (parsed from forkparams)
+	public int[] forkdex = new int[0];
+	// snapshots of the model at the end of each burn-in, shared by all the workers (only used if burnin is above 0)
+	// (each one is either the snapshot itself or the file it was saved to, and is dropped once the run has moved past everything that uses it)
+	protected transient ConcurrentHashMap<String, Burnin> burnins;
+	// for each random iteration, the last one that uses the same burn-ins
+	protected transient int[] burniters;
+	// the combination of parameter values that was last tested, and its values as written to file
+	protected transient long lastpoint = -1;
+	protected transient String paramstring;
+	// parameter values changed with resetParam, each with the value from the design it replaced
+	// (these carry over to later replicates until the sweep moves that parameter on to another value)
+	protected transient HashMap<Integer, String[]> resets;
+	// file writer for the seed and parameters of each run, by the ID the results files have instead (only created if normalize is true)
+	public transient BufferedWriter designwriter;
+	// file writer for the list of replicates run by this shard (only created if the run is sharded)
+	public transient BufferedWriter manifestwriter;
+	// names of all the results files that have been opened
+	public ArrayList<String> outfiles = new ArrayList<String>();
+	// file writer for the journal of finished replicates (only created if resume is true)
+	public transient BufferedWriter journalwriter;
+	// replicates finished by a previous run, with the seed and parameters they were run with (only used when resuming)
+	public transient HashMap<Long, String> finished;
+	// and their end results for deciding when there have been enough replicates (only used when resuming with minreps above 0)
+	protected transient HashMap<Long, double[]> finishedends;
 	// the separator for writing results to file
 	public char sep = ',';
 	// key parameters used in every model (as class variables for access if the user wants them)
 	public static String[] keyparams = {"seed", "sep", "steps", "iters", "reps", "fname", "testint", "teststart",
-			"gui", "agentint", "netint", "listint"};
+			"gui", "agentint", "netint", "listint", "threads", "shard", "resume", "sampling",
+			"minreps", "citarget", "ciresults", "stop",
+			"burnin", "forkparams", "burnsave", "precision", "format", "compress", "async", "backpressure",
+			"aggregate", "quantiles", "agentdelta", "keyframe", "netdelta",
+			"agentsample", "agentstrata", "listsummary", "nio", "store", "normalize"};
 	public int seed = 0;
 	public int steps;
 	public int iters = 1;
@@ -68,6 +178,33 @@ public abstract class SimDataCollection extends SimState  {
 	public int agentint = 0;
 	public int netint = 0;
 	public int listint = 0;
+	public int threads = 1;
+	public String shard = "";
+	public boolean resume = false;
+	public String sampling = "random";
+	public int minreps = 0;
+	public double citarget = 0;
+	public String ciresults = "";
+	public String stop = "";
+	public int burnin = 0;
+	public String forkparams = "";
+	public boolean burnsave = false;
+	public int precision = -1;
+	public String format = "text";
+	public boolean compress = false;
+	public boolean async = false;
+	public String backpressure = "block";
+	public boolean aggregate = false;
+	public String quantiles = "0.05 0.25 0.5 0.75 0.95";
+	public boolean agentdelta = false;
+	public int keyframe = 0;
+	public boolean netdelta = false;
+	public String agentsample = "";
+	public String agentstrata = "";
+	public String listsummary = "";
+	public boolean nio = false;
+	public boolean store = false;
+	public boolean normalize = false;
 	// list of parameter names - to be made in the child class
 	public String[] paramnames;
 	// indicates whether to automatically use the subclass fields as parameters - default to true
@@ -77,6 +214,19 @@ public abstract class SimDataCollection extends SimState  {
 	// indicates whether to automatically use the remaining subclass fields as results categories
 	// defaults to true, but is only relevant when reading from file
 	public boolean autores = true;
+	// indicates whether to set parameters that are fields directly each replicate (instead of through setParamVal)
+	// defaults to true, but is ignored if setParams or setParamVal is overridden (so everything still goes through the override)
+	public boolean bindfields = true;
+	// sets parameter and result fields each replicate (only created if bindfields is true and setParams and setParamVal haven't been overridden)
+	protected transient ParamBinder binder;
+	protected transient boolean bindchecked = false;
+	// indicates whether to read results that are fields directly (instead of through getResult)
+	// defaults to true, but is ignored if getResult is overridden (so everything still goes through the override)
+	public boolean extractfields = true;
+	// read model results, agent results, model lists, and agent lists (only created the first time results are written)
+	protected transient ResultExtractor resextractor, agentextractor, listextractor, agentlistextractor;
+	// reusable buffers for building rows of results
+	protected transient RowEncoder row, endrow;
 	// list of results to be gathered from each agent individually
 	public String[] agentres = new String[0];
 	// list of agents
@@ -89,6 +239,8 @@ public abstract class SimDataCollection extends SimState  {
 	public String[] agentlists = new String[0];
 	// list of results names added from file for splitting
 	public String[] fileres;
+	// every replicate of every combination of parameter values to be run
+	public DesignSpace design;
 	// the subclass for use in accessing its fields
 	public Class subclass;
 	// the agent class for use in accessing its fields
@@ -279,26 +431,138 @@ public abstract class SimDataCollection extends SimState  {
 		if(gui) {
 			setParams(params);
 		} else {
-			// otherwise create an output file and sweep
+			// otherwise create an output file and run everything
 			// start by making sure all the necessary key parameters are there
 			if(steps == 0 || reps == 0 || testint == 0) {
 				System.out.println("Missing key parameters for running without GUI (steps, reps, or testint)!");
 				System.exit(0);
 			}
+			// lay out all the replicates to be run, with random parameters drawn from a separate random seed
+			MersenneTwisterFast paramgen = new MersenneTwisterFast();
+			paramgen.setSeed(this.seed);
+			this.design = new DesignSpace(this.params, this.testparams, this.testvals, this.randparams, drawIterations(paramgen), this.reps);
+			// if the number of replicates is adaptive, figure out which results to watch
+			if(this.minreps > 0) {
+				setConvergence();
+			}
+			// and set up any conditions for stopping simulations early
+			setStops();
+			// and if simulations all start from a shared burn-in, figure out which parameters are set after it
+			if(this.burnin > 0) {
+				setForks();
+			}
+			// make sure the results can be written in the requested format
+			if(!this.format.equals("text") && !this.format.equals("columnar")) {
+				System.out.println("Unknown format: " + this.format + " (should be text or columnar)");
+				System.exit(0);
+			}
+			if(this.resume && this.format.equals("columnar")) {
+				System.out.println("Only text results can be resumed, set format to text to use resume.");
+				System.exit(0);
+			}
+			// summaries have to be of whole sets of replicates, which a resumed run might not have
+			if(this.aggregate && this.resume) {
+				System.out.println("Agent results can't be aggregated in a resumed run, set aggregate to false to use resume.");
+				System.exit(0);
+			}
+			if(this.agentsample.trim().length() > 0) {
+				try {
+					new AgentSampler(this.agentsample, 0);
+				} catch(NumberFormatException e) {
+					System.out.println("agentsample should be a fraction of agents (between 0 and 1) or a whole number of agents: " + this.agentsample);
+					System.exit(0);
+				}
+			}
+			// run IDs stand in for seeds in the results, which only go up to the biggest int
+			if(this.normalize && this.design.size() > Integer.MAX_VALUE) {
+				System.out.println("Too many replicates to give each one an ID, set normalize to false.");
+				System.exit(0);
+			}
+			if(this.aggregate && this.agentdelta) {
+				System.out.println("Agent results can either be aggregated or written as deltas, not both.");
+				System.exit(0);
+			}
+			if(this.aggregate || this.listsummary.trim().length() > 0) {
+				try {
+					String[] q = this.quantiles.trim().length() > 0 ? this.quantiles.trim().split("\\s+") : new String[0];
+					this.quantilevals = new double[q.length];
+					for(int i = 0; i < q.length; i++) {
+						this.quantilevals[i] = Double.parseDouble(q[i]);
+						if(this.quantilevals[i] < 0 || this.quantilevals[i] > 1) throw new NumberFormatException();
+					}
+				} catch(NumberFormatException e) {
+					System.out.println("Quantiles should be numbers between 0 and 1 separated by spaces: " + this.quantiles);
+					System.exit(0);
+				}
+			}
+			if(this.listsummary.trim().length() > 0) {
+				try {
+					new ListSummary(this.listsummary, this.quantilevals);
+				} catch(IllegalArgumentException e) {
+					System.out.println(e.getMessage());
+					System.exit(0);
+				}
+			}
+			// and if they're being written on a separate thread, start that up
+			if(this.async) {
+				if(!this.backpressure.equals("block") && !this.backpressure.equals("grow")) {
+					System.out.println("Unknown backpressure: " + this.backpressure + " (should be block or grow)");
+					System.exit(0);
+				}
+				this.writepipe = new AsyncWritePipeline(64, this.backpressure.equals("grow"));
+			}
+			// if this is only one shard of the run, figure out which one
+			if(this.shard.length() > 0) {
+				parseShard(this.shard);
+			}
+			// if there's a journal from a previous run to resume, load it (this also decides whether to append to the results files)
+			if(this.resume) {
+				readJournal();
+			}
 			try {
+				// if the results are also going in a store, open that first so every results file can go through it
+				if(this.store) {
+					String f = this.fname + getShardName() + "results.store";
+					this.outfiles.add(f);
+					this.resultstore = new ResultStore(f, this.sep, this.normalize ? 0 : this.randparams.size() + this.testparams.size(), this.finished != null);
+				}
 				// if there are whole model results, create files for those (one just at the end and one timecourse)
 				if(this.resnames.length > 0) {
 					// make files to write the results to
-					this.endwriter = new BufferedWriter(new FileWriter(this.fname+"endresults.txt"));
-					this.timewriter = new BufferedWriter(new FileWriter(this.fname + "timeresults.txt"));
+					this.endwriter = openResultWriter("endresults.txt", false);
+					this.timewriter = openResultWriter("timeresults.txt", true);
 					// and write in a header
-					makeHeader(this.endwriter, false, false, this.resnames);
+					if(this.recordstop) {
+						// with an extra couple of columns for when and why each simulation stopped
+						String[] endres = Arrays.copyOf(this.resnames, this.resnames.length + 2);
+						endres[this.resnames.length] = "StopStep";
+						endres[this.resnames.length + 1] = "StopReason";
+						makeHeader(this.endwriter, false, false, endres);
+					} else {
+						makeHeader(this.endwriter, false, false, this.resnames);
+					}
 					makeHeader(this.timewriter, true, false, this.resnames);
 				}
 				// if there are agent results, also create a file to hold those
 				if(this.agentres.length > 0) {
-					this.agentwriter = new BufferedWriter(new FileWriter(this.fname + "agentresults.txt"));
-					makeHeader(this.agentwriter, true, true, this.agentres);
+					if(this.aggregate) {
+						// or just their summary statistics, one row per timestep and result
+						this.summarywriter = openResultWriter("agentsummary.txt", false);
+						String[] cols = new String[6 + this.quantilevals.length];
+						System.arraycopy(new String[] {"Field", "Count", "Mean", "Variance", "Min", "Max"}, 0, cols, 0, 6);
+						for(int q = 0; q < this.quantilevals.length; q++) {
+							cols[6 + q] = "Q" + this.quantilevals[q];
+						}
+						makeHeader(this.summarywriter, "Replicates", true, false, cols);
+					} else {
+						this.agentwriter = openResultWriter("agentresults.txt", true);
+						makeHeader(this.agentwriter, true, true, this.agentres);
+						// with just the keyframes in there if only the changes are being written
+						if(this.agentdelta) {
+							this.deltawriter = openResultWriter("agentdelta.txt", true);
+							makeHeader(this.deltawriter, true, false, new String[] {"AgentID", "Field", "Value"});
+						}
+					}
 				}
 				// if there are network results, also create a file for each of those
 				if(this.nets.length > 0) {
@@ -306,91 +570,234 @@ public abstract class SimDataCollection extends SimState  {
 					this.netwriters = new BufferedWriter[this.nets.length];
 					for(int i = 0; i < this.nets.length; i++) {
 						// then create each file
-						this.netwriters[i] = new BufferedWriter(new FileWriter(this.fname + this.nets[i] + "edgelist.txt"));
+						this.netwriters[i] = openResultWriter(this.nets[i] + "edgelist.txt", true);
 						makeHeader(this.netwriters[i], true, false, new String[]{"from", "to", "info"});
 					}
+					// along with files for just the changes if that's what's being written
+					if(this.netdelta) {
+						this.netdeltawriters = new BufferedWriter[this.nets.length];
+						for(int i = 0; i < this.nets.length; i++) {
+							this.netdeltawriters[i] = openResultWriter(this.nets[i] + "edgedelta.txt", true);
+							makeHeader(this.netdeltawriters[i], true, false, new String[]{"Change", "from", "to", "info"});
+						}
+					}
 				}
 				// and if there are list results, create files for those at the model level
 				if(this.lists.length > 0) {
-					this.listwriter = new BufferedWriter(new FileWriter(this.fname + "listresults.txt"));
-					makeHeader(this.listwriter, true, false, new String[] {"List", "Values"});
+					this.listwriter = openResultWriter("listresults.txt", false);
+					makeHeader(this.listwriter, true, false, listColumns());
 				}
 				// and at the agent level
 				if(this.agentlists.length > 0) {
-					this.agentlistwriter = new BufferedWriter(new FileWriter(this.fname + "agentlistresults.txt"));
-					makeHeader(this.agentlistwriter, true, true, new String[] {"List", "Values"});
+					this.agentlistwriter = openResultWriter("agentlistresults.txt", false);
+					makeHeader(this.agentlistwriter, true, true, listColumns());
+				}
+				// if the results just have the ID of each run, make a file with the seed and parameters that go with each ID
+				if(this.normalize) {
+					this.designwriter = openWriter("design.txt");
+					makeDesign();
+				}
+				// and if this is a shard, make a manifest to keep track of which replicates it ran
+				if(this.shardcount > 1) {
+					this.manifestwriter = openWriter("manifest.txt");
+					makeManifest();
+				}
+				// and if the run might need to be resumed, start keeping a journal
+				if(this.resume) {
+					makeJournal();
 				}
 			} catch(IOException e) {
 				System.out.println("Something's wrong with your results files!");
 				System.exit(0);
 			}
-			// draw random parameters from a separate random seed
-			MersenneTwisterFast paramgen = new MersenneTwisterFast();
-			paramgen.setSeed(this.seed);
-			// draw the designated number of random iterations (at least 1), and then sweep parameters/test each
-			for(int i = 0; i < Math.max(this.iters, 1); i++) {
-				// randomly draw all the randparams
-				for(int r = 0; r < this.randparams.size(); r++) {
-					double val = parseRand(paramgen, this.randdists.get(r));
-					// if that's NaN, something didn't work, and print out a message, but keep going
-					if(Double.isNaN(val)) {
-						System.out.println("Random parameter not formatted correctly.");
-					}
-					this.params[this.randparams.get(r)] = String.valueOf(val);
-				}
-				// then, if there are no test params, just test
-				if(this.testparams.size() == 0) {
-					// test the model for the given seed, number of steps, replications,
-					// and the test interval
-					test();
-				} else {
-					// otherwise sweep
-					sweep(0);
-				}
+			// if replicates are going to be run in parallel, set up the workers before anything is run
+			if(this.threads != 1) {
+				startWorkers();
 			}
+			IOException failed = null;
 			try {
-				if(this.resnames.length > 0) {
-					this.endwriter.close();
-					this.timewriter.close();
-				}
-				if(this.agentres.length > 0) {
-					this.agentwriter.close();
-				}
-				if(this.nets.length > 0) {
-					for(int i = 0; i < this.nets.length; i++) {
-						this.netwriters[i].close();
+				// go through every replicate (or every one in this shard) in order and test each
+				long g = shardGroup();
+				for(long b = this.shardnum; b*g < this.design.size(); b += this.shardcount) {
+					for(long u = b*g; u < (b+1)*g; u++) {
+						test(u);
+						// and stop there if the results couldn't be written in the background
+						if(this.writepipe != null) this.writepipe.check();
 					}
 				}
-				if(this.lists.length > 0) {
-					this.listwriter.close();
-				}
-				if(this.agentlists.length > 0) {
-					this.agentlistwriter.close();
-				}
-			} catch (IOException e) {
-				System.out.println("Writer not closing...");
+				// wait for any parallel runs that are still going and write their results
+				stopWorkers();
+			} catch(UncheckedIOException e) {
+				failed = e.getCause();
+			} catch(IOException e) {
+				failed = e;
+			} finally {
+				// whatever happened, stop anything still running and close the files, so everything that was written makes it to disk
+				abortWorkers();
+				closeWriters(failed);
 			}
 		}
 		System.out.println("done.");
 	}
 
+	/*
+	 * The columns for list results: the list and its values, or its summary
+	 */
+	public String[] listColumns() {
+		if(this.listsummary.trim().length() == 0) return new String[] {"List", "Values"};
+		String[] cols = new ListSummary(this.listsummary, this.quantilevals).columns();
+		String[] all = new String[cols.length + 1];
+		all[0] = "List";
+		System.arraycopy(cols, 0, all, 1, cols.length);
+		return all;
+	}
+
+	/*
+	 * Brings the registry of agents up to date for this step, and decides whether any new agents are in the panel (if there is one)
+	 */
+	public AgentRegistry sampleAgents() {
+		AgentRegistry registry = ((AccessibleSchedule)this.schedule).registry;
+		if(this.sampledstep != this.schedule.getSteps()) {
+			this.sampledstep = this.schedule.getSteps();
+			registry.startSample(this.agents);
+			if(this.sampler != null) {
+				this.sampler.startSample(registry, this, this.strataextractor);
+			}
+		}
+		return registry;
+	}
+
+	/*
+	 * Merges the summary of a finished replicate into the summary of its combination of parameter values
+	 * (writing out the summary of the last combination once it moves on to the next)
+	 */
+	public void recordSummary(long u, AgentSummary s, String p) {
+		if(s == null) return;
+		long point = u/this.design.reps();
+		if(point != this.summarypoint) {
+			try {
+				writeSummary();
+			} catch(IOException e) {
+				throw new UncheckedIOException("Failed to write results to file", e);
+			}
+			this.pointsummary = new AgentSummary(this.agentres);
+			this.summarypoint = point;
+			this.summaryparams = p;
+		}
+		this.pointsummary.merge(s);
+	}
+
+	/*
+	 * Writes out the summary of the current combination of parameter values (if there is one)
+	 */
+	public void writeSummary() throws IOException {
+		if(this.pointsummary == null || this.summarywriter == null) return;
+		this.pointsummary.write(this.summarywriter, new RowEncoder(this.sep, this.precision), this.summaryparams, this.quantilevals);
+		this.pointsummary = null;
+	}
+
+	/*
+	 * Closes all the results files (each exactly once), making sure everything was actually written
+	 * (if anything wasn't, it says what went wrong and stops with an error instead of finishing as if it was fine)
+	 */
+	public void closeWriters() {
+		closeWriters(null);
+	}
+
+	/*
+	 * The same, but after something has already gone wrong (if failed isn't null), which it reports once the files are closed
+	 */
+	public void closeWriters(IOException failed) {
+		// write out the summary of the last set of replicates
+		try {
+			writeSummary();
+		} catch(IOException e) {
+			failed = e;
+		}
+		failed = closeWriter(this.summarywriter, failed);
+		this.summarywriter = null;
+		BufferedWriter[] writers = getWriters();
+		for(BufferedWriter w : writers) {
+			failed = closeWriter(w, failed);
+		}
+		setWriters(new BufferedWriter[writers.length]);
+		try {
+			if(this.manifestwriter != null) {
+				// mark the manifest as finished, so it's clear this shard wasn't cut short
+				this.manifestwriter.write("% finished " + this.done + " of " + countShard() + " replicates\n");
+			}
+		} catch(IOException e) {
+			if(failed == null) failed = e;
+		}
+		failed = closeWriter(this.designwriter, failed);
+		failed = closeWriter(this.manifestwriter, failed);
+		failed = closeWriter(this.journalwriter, failed);
+		this.designwriter = null;
+		this.manifestwriter = null;
+		this.journalwriter = null;
+		if(this.writepipe != null) {
+			try {
+				this.writepipe.shutdown();
+			} catch(IOException e) {
+				if(failed == null) failed = e;
+			}
+			this.writepipe = null;
+		}
+		// the store gets its index once everything else has been written
+		if(this.resultstore != null) {
+			try {
+				this.resultstore.close();
+			} catch(IOException e) {
+				if(failed == null) failed = e;
+			}
+			this.resultstore = null;
+		}
+		if(failed != null) {
+			System.out.println("Failed to write results to file: " + failed.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/*
+	 * Closes a writer (if it's open), keeping track of the first thing that went wrong
+	 */
+	private IOException closeWriter(BufferedWriter w, IOException failed) {
+		if(w == null) return failed;
+		try {
+			w.close();
+		} catch(IOException e) {
+			if(failed == null) failed = e;
+		}
+		return failed;
+	}
+
 	/*
 	 * parses inputed strings into lists of variables
 	 */
 	public void parse(int param, String val) {
-		// first check to see if it's to be randomly drawn (if the parser doesn't return Not a Number)
-		double draw = parseRand(this.random, val);
-		if(!Double.isNaN(draw)) {
+		// split the value between spaces (but not spaces inside a distribution's parentheses)
+		String[] vals = splitValues(val);
+		// check to see if it's to be randomly drawn (anything that looks like a distribution but isn't quite right stops here),
+		// which it only is if it's a single value (several values are test values, which might each be a distribution to draw from every run)
+		Distribution dist = null;
+		for(String v : vals) {
+			try {
+				Distribution d = Distribution.get(v);
+				if(vals.length == 1) dist = d;
+			} catch(IllegalArgumentException e) {
+				System.out.println("Random parameter not formatted correctly: " + e.getMessage());
+				System.exit(0);
+			}
+		}
+		if(dist != null) {
 			// then add it to randparams
 			this.randparams.add(param);
 			// store the indicated distribution
 			this.randdists.add(val);
 			// and draw a value for it
-			this.params[param] = Double.toString(draw);
+			this.params[param] = Double.toString(dist.draw(this.random));
 		} else {
 			// otherwise, check to see if its a test value (for now these are mutually exclusive)
-			// split the value between spaces
-			String[] vals = val.split(" ");
 			// the first value is the starting value of that parameter
 			this.params[param] = vals[0];
 			// if there are more values provided store them for testing
@@ -402,38 +809,434 @@ public abstract class SimDataCollection extends SimState  {
 			}
 		}
 	}
+
+	/*
+	 * Splits a parameter's value between spaces the same way split(" ") does, except for spaces inside parentheses,
+	 * so a distribution like U(0, 1) stays in one piece
+	 */
+	public static String[] splitValues(String val) {
+		ArrayList<String> vals = new ArrayList<String>();
+		int depth = 0;
+		int start = 0;
+		for(int i = 0; i < val.length(); i++) {
+			char c = val.charAt(i);
+			if(c == '(') depth++;
+			else if(c == ')' && depth > 0) depth--;
+			else if(c == ' ' && depth == 0) {
+				vals.add(val.substring(start, i));
+				start = i + 1;
+			}
+		}
+		vals.add(val.substring(start));
+		// (like split, without any empty values at the end)
+		while(vals.size() > 1 && vals.get(vals.size() - 1).length() == 0) {
+			vals.remove(vals.size() - 1);
+		}
+		return vals.toArray(new String[vals.size()]);
+	}
+	
+	/*
+	 * draws the random parameters for each random iteration (at least 1), one row per iteration
+	 */
+	public String[][] drawIterations(MersenneTwisterFast paramgen) {
+		String[][] draws = new String[Math.max(this.iters, 1)][this.randparams.size()];
+		// if a space-filling design is being used, lay out the points to map onto each distribution
+		double[][] design = null;
+		try {
+			design = SamplingDesign.generate(this.sampling, paramgen, draws.length, this.randparams.size());
+		} catch(IllegalArgumentException e) {
+			System.out.println(e.getMessage() + " (should be random, lhs, sobol, or halton)");
+			System.exit(0);
+		}
+		for(int i = 0; i < draws.length; i++) {
+			for(int r = 0; r < this.randparams.size(); r++) {
+				double val;
+				if(design == null) {
+					val = parseRand(paramgen, this.randdists.get(r));
+				} else {
+					val = parseQuantile(design[i][r], this.randdists.get(r));
+				}
+				// if that's NaN, something didn't work, and print out a message, but keep going
+				if(Double.isNaN(val)) {
+					System.out.println("Random parameter not formatted correctly.");
+				}
+				draws[i][r] = String.valueOf(val);
+			}
+		}
+		return draws;
+	}
+	
+	/*
+	 * parses which shard this is from a string of the form <shard>/<number of shards>
+	 */
+	public void parseShard(String code) {
+		String[] split = code.split("/");
+		try {
+			this.shardnum = Integer.parseInt(split[0].trim());
+			this.shardcount = Integer.parseInt(split[1].trim());
+		} catch(NumberFormatException|ArrayIndexOutOfBoundsException e) {
+			this.shardcount = 0;
+		}
+		if(this.shardcount < 1 || this.shardnum < 0 || this.shardnum >= this.shardcount) {
+			System.out.println("Shard must be in the form <shard>/<number of shards>, with shards numbered from 0!");
+			System.exit(0);
+		}
+	}
+	
+	/*
+	 * returns the part of the file names that identifies this shard (empty if the run isn't sharded)
+	 */
+	public String getShardName() {
+		if(this.shardcount < 2) return "";
+		return "shard" + this.shardnum + "of" + this.shardcount;
+	}
+	
+	/*
+	 * counts the replicates in the whole run (random iterations x combinations of test parameters x replicates)
+	 */
+	public long countUnits() {
+		return this.design.size();
+	}
+	
+	/*
+	 * the number of replicates in a row that go to the same shard: just one, unless the number of replicates is adaptive,
+	 * in which case all the replicates of a combination of parameter values have to be run together
+	 */
+	public long shardGroup() {
+		return this.minreps > 0 || this.aggregate ? this.design.reps() : 1;
+	}
+	
+	/*
+	 * counts the replicates assigned to this shard (every shardcount-th group of replicates, starting from shardnum)
+	 */
+	public long countShard() {
+		long g = shardGroup();
+		long n = countUnits()/g;
+		return g*(n/this.shardcount + (this.shardnum < n%this.shardcount ? 1 : 0));
+	}
+	
+	/*
+	 * sets up the list of results to watch to decide when there have been enough replicates (defaults to all model results)
+	 */
+	public void setConvergence() {
+		if(this.ciresults.trim().length() > 0) {
+			this.convres = this.ciresults.trim().split(" ");
+		} else {
+			this.convres = this.resnames;
+		}
+		// they all have to be results that are being collected
+		for(String r : this.convres) {
+			if(!Arrays.asList(this.resnames).contains(r)) {
+				System.out.println(r + " has to be a model result to decide the number of replicates!");
+				System.exit(0);
+			}
+		}
+		if(this.convres.length == 0 || this.citarget <= 0) {
+			System.out.println("Adaptive replicates need model results and a positive citarget!");
+			System.exit(0);
+		}
+		this.convstats = new RunningStats[this.convres.length];
+		for(int r = 0; r < this.convres.length; r++) {
+			this.convstats[r] = new RunningStats();
+		}
+	}
+	
+	/*
+	 * gets the current values of the results used to decide the number of replicates (NaN if they aren't numbers)
+	 */
+	public double[] getEnds() {
+		if(this.convres == null) return null;
+		double[] ends = new double[this.convres.length];
+		for(int r = 0; r < this.convres.length; r++) {
+			try {
+				ends[r] = Double.parseDouble(getResult(this.convres[r], this, this.subclass));
+			} catch(NumberFormatException e) {
+				ends[r] = Double.NaN;
+			}
+		}
+		return ends;
+	}
+	
+	/*
+	 * adds the end results of a finished replicate to the stats for its combination of parameter values,
+	 * and then checks whether that combination has had enough replicates
+	 * (replicates are recorded in order even when they're run in parallel, so this decides the same way a serial run does)
+	 */
+	public void recordEnds(long u, double[] ends) {
+		if(ends == null) return;
+		long point = u/this.design.reps();
+		// start over for each new combination of parameter values
+		if(point != this.statspoint) {
+			this.statspoint = point;
+			for(RunningStats st : this.convstats) {
+				st.clear();
+			}
+		}
+		for(int r = 0; r < ends.length; r++) {
+			this.convstats[r].add(ends[r]);
+		}
+		// (there's nothing to decide after the last replicate)
+		int n = this.design.replicate(u) + 1;
+		if(n < this.minreps || n >= this.design.reps()) return;
+		for(RunningStats st : this.convstats) {
+			if(!(st.halfWidth(.95) <= this.citarget)) return;
+		}
+		this.convergedpoint = point;
+		System.out.println("Converged after " + n + " replicates.");
+	}
+	
+	/*
+	 * checks whether the combination of parameter values for a replicate has already had enough replicates:
+	 * at least minreps, and with a 95% confidence interval no more than citarget to either side of the mean for all the watched results
+	 * (which recordEnds decides as each replicate is recorded)
+	 */
+	public boolean isConverged(long u) {
+		long point = u/this.design.reps();
+		if(point == this.convergedpoint) return true;
+		int rep = this.design.replicate(u);
+		// when running in parallel, the replicates still running haven't been recorded yet,
+		// so once per round of replicates (one for each thread), wait for them to find out whether to keep going
+		// (any that were run past the point it converged at are thrown out, see writePending)
+		if(this.workers != null && rep >= this.minreps && (rep - this.minreps) % this.nworkers == 0) {
+			while(!this.pending.isEmpty()) {
+				writePending();
+			}
+			return point == this.convergedpoint;
+		}
+		return false;
+	}
+	
+	/*
+	 * opens a results file, with the name of the shard added if the run is sharded
+	 */
+	public BufferedWriter openWriter(String name) throws IOException {
+		String f = this.fname + getShardName() + name;
+		this.outfiles.add(f);
+		// if resuming a previous run, add on to what's already there
+		return new BufferedWriter(textWriter(f));
+	}
+
+	/*
+	 * Opens a plain text file to write to, through a FileChannel if nio is true (if resuming, it adds on to the end)
+	 */
+	public Writer textWriter(String f) throws IOException {
+		if(this.nio) return new ChannelWriter(f, this.finished != null);
+		return new FileWriter(f, this.finished != null);
+	}
+	
+	/*
+	 * Opens a results file, compressed if compress is true, or in the columnar format if that's what's being used
+	 * and it's one of the big results files that can be written that way (timecourse, agent, and network)
+	 */
+	public BufferedWriter openResultWriter(String name, boolean columnar) throws IOException {
+		if(columnar && this.format.equals("columnar")) {
+			String f = this.fname + getShardName() + name.replaceAll("\\.txt$", ".col");
+			this.outfiles.add(f);
+			Writer out = new ColumnarWriter(f, this.sep);
+			if(this.resultstore != null) out = this.resultstore.level(name.replaceAll("\\.txt$", ""), out);
+			if(this.writepipe != null) out = this.writepipe.open(out);
+			return new BufferedWriter(out);
+		}
+		Writer out;
+		if(this.compress) {
+			String f = this.fname + getShardName() + name + ".gz";
+			this.outfiles.add(f);
+			// compressed in blocks in the background (and if resuming, new blocks go on the end of the ones already there)
+			out = new OutputStreamWriter(new GzipBlockOutputStream(new FileOutputStream(f, this.finished != null)));
+		} else {
+			String f = this.fname + getShardName() + name;
+			this.outfiles.add(f);
+			out = textWriter(f);
+		}
+		// if there's a store, everything goes in there too (under the name of the file)
+		if(this.resultstore != null) out = this.resultstore.level(name.replaceAll("\\.txt$", ""), out);
+		// if writing is done on a separate thread, send it through there
+		if(this.writepipe != null) out = this.writepipe.open(out);
+		return new BufferedWriter(out);
+	}
+	
+	/*
+	 * Writes the header for a shard's manifest, which lists the replicates it ran so the shards can be combined later
+	 */
+	public void makeManifest() throws IOException {
+		// a resumed run already has this
+		if(this.finished != null) return;
+		this.manifestwriter.write("% Shard " + this.shardnum + " of " + this.shardcount + ": " + countShard() + " of "
+				+ countUnits() + " replicates\n");
+		// list all the results files this shard is writing to (leaving off the manifest itself)
+		this.manifestwriter.write("% Files: " + String.join(" ", this.outfiles.subList(0, this.outfiles.size()-1)) + "\n");
+		// then the header for the table of replicates (same parameter columns as the results files)
+		this.manifestwriter.write("Unit" + this.sep + "Iteration" + this.sep + "Seed" + this.sep);
+		for(int r = 0; r < this.randparams.size(); r++) {
+			this.manifestwriter.write(this.paramnames[this.randparams.get(r)] + this.sep);
+		}
+		for(int t = 0; t < this.testparams.size(); t++) {
+			this.manifestwriter.write(this.paramnames[this.testparams.get(t)] + this.sep);
+		}
+		this.manifestwriter.write("\n");
+	}
+	
+	/*
+	 * Starts the journal of finished replicates, which lists the results files and then,
+	 * for each replicate, its index, seed, the size of each file once its results were written, and its parameters
+	 * (with a line of its end results before it if the number of replicates is adaptive)
+	 */
+	public void makeJournal() throws IOException {
+		String f = this.fname + getShardName() + "journal.txt";
+		this.journalwriter = new BufferedWriter(textWriter(f));
+		if(this.finished == null) {
+			this.journalwriter.write("% Replicates: " + countUnits() + "\n");
+			this.journalwriter.write("% Files: " + String.join(" ", this.outfiles) + "\n");
+			this.journalwriter.flush();
+		}
+	}
+	
+	/*
+	 * Reads the journal from a previous run (if there is one) to find which replicates have already been finished,
+	 * and cuts each results file back to where it was when the last of those was written
+	 */
+	public void readJournal() {
+		File f = new File(this.fname + getShardName() + "journal.txt");
+		// if there's no journal, this is a fresh run
+		if(!f.exists()) return;
+		this.finished = new HashMap<Long, String>();
+		this.finishedends = new HashMap<Long, double[]>();
+		String[] files = new String[0];
+		String[] sizes = null;
+		try {
+			BufferedReader journal = new BufferedReader(new FileReader(f));
+			String line;
+			while((line = journal.readLine()) != null) {
+				if(line.startsWith("% Replicates: ")) {
+					// make sure the journal is from the same run
+					if(Long.parseLong(line.substring(14).trim()) != countUnits()) {
+						System.out.println("Journal doesn't match the input file!");
+						System.exit(0);
+					}
+				} else if(line.startsWith("% Files: ")) {
+					files = line.substring(9).trim().split(" ");
+				} else if(line.startsWith("% Ends: ")) {
+					// the index and then the end results used to decide when there have been enough replicates
+					String[] vals = line.substring(8).trim().split(" ");
+					// skip a line that was only partly written (or from a run that watched different results)
+					if(this.convres == null || vals.length != this.convres.length + 1) continue;
+					double[] ends = new double[this.convres.length];
+					for(int r = 0; r < ends.length; r++) {
+						ends[r] = Double.parseDouble(vals[r+1]);
+					}
+					this.finishedends.put(Long.parseLong(vals[0]), ends);
+				} else if(line.length() > 0) {
+					// the index, seed, file sizes, and then parameters (which might contain spaces)
+					String[] entry = line.split(" ", files.length + 3);
+					// skip a line that was only partly written
+					if(entry.length < files.length + 3) continue;
+					this.finished.put(Long.parseLong(entry[0]), entry[1] + this.sep + entry[entry.length-1]);
+					sizes = entry;
+				}
+			}
+			journal.close();
+			// anything written after the last finished replicate is from one that didn't finish, so get rid of it
+			for(int i = 0; i < files.length; i++) {
+				RandomAccessFile file = new RandomAccessFile(files[i], "rw");
+				file.setLength(sizes == null ? 0 : Long.parseLong(sizes[i+2]));
+				file.close();
+			}
+			// and if nothing was finished, start over with new headers
+			if(sizes == null) {
+				this.finished = null;
+				this.finishedends = null;
+				f.delete();
+			} else {
+				System.out.println("Resuming with " + this.finished.size() + " replicates already finished.");
+			}
+		} catch(IOException|NumberFormatException e) {
+			System.out.println("Problem reading the journal!");
+			System.exit(0);
+		}
+	}
+	
+	/*
+	 * Checks whether a replicate was already finished by a previous run (and that it was run the same way)
+	 */
+	public boolean isFinished(long u, int s, String p) {
+		if(this.finished == null) return false;
+		String prev = this.finished.get(u);
+		if(prev == null) return false;
+		if(!prev.equals(s + "" + this.sep + p)) {
+			System.out.println("Journal doesn't match the input file!");
+			System.exit(0);
+		}
+		return true;
+	}
+	
+	/*
+	 * Records a replicate once all of its results have been written,
+	 * in the manifest if this is a shard and in the journal if the run might need to be resumed
+	 */
+	public void finishReplicate(long u, int iter, int s, String p, double[] ends) {
+		this.done++;
+		try {
+			if(this.designwriter != null) {
+				this.designwriter.write("" + u + this.sep + iter + this.sep + s + this.sep + p + "\n");
+			}
+			if(this.manifestwriter != null) {
+				this.manifestwriter.write("" + u + this.sep + iter + this.sep + s + this.sep + p + "\n");
+			}
+			if(this.journalwriter != null) {
+				// make sure everything for this replicate is actually in the files first
+				for(BufferedWriter w : getWriters()) {
+					if(w != null) w.flush();
+				}
+				if(this.designwriter != null) {
+					this.designwriter.flush();
+				}
+				if(this.manifestwriter != null) {
+					this.manifestwriter.flush();
+				}
+				// so the replicates that were already run still count towards convergence if the run is resumed
+				if(ends != null) {
+					String line = "% Ends: " + u;
+					for(double e : ends) {
+						line += " " + e;
+					}
+					this.journalwriter.write(line + "\n");
+				}
+				String entry = u + " " + s + " ";
+				for(String f : this.outfiles) {
+					entry += new File(f).length() + " ";
+				}
+				this.journalwriter.write(entry + p + "\n");
+				this.journalwriter.flush();
+			}
+		} catch(IOException e) {
+			System.out.println("Failed to record finished replicate...");
+		}
+	}
 	
 	/*
 	 * parses and randomly draws such parameters (if the code is invalid, it returns NaN)
+	 * (the distribution itself is only parsed the first time, see Distribution for the options)
 	 */
 	public double parseRand(MersenneTwisterFast rand, String code) {
-		// first remove all whitespace
-		code = code.replaceAll(" ", "");
-		// then grab the distribution (which should be a letter: N for normal, U for uniform, and C for choice)
-		char dist = code.charAt(0);
-		// make sure there are parentheses, so I'm not just taking random things and declaring them to be random draws
-		if(code.length() < 4 || code.charAt(1) != '(' || code.charAt(code.length()-1) != ')') return Double.NaN;
-		// then split parameters within the parentheses using commas
-		String[] distparams = code.substring(2,code.length()-1).split(",");
-		// now I'm going to assume the values inside are doubles, and if that fails, return NaN, to show  it failed
 		try {
-			switch(dist) {
-			case 'N':
-				// normal with mean and standard deviation
-				return rand.nextGaussian()*Double.parseDouble(distparams[1]) + Double.parseDouble(distparams[0]);
-			case 'U':
-				// uniform with min and max
-				return rand.nextDouble()*(Double.parseDouble(distparams[1])-Double.parseDouble(distparams[0])) + Double.parseDouble(distparams[0]);
-			case 'C':
-				// choice between a provided number of options (mostly used for a coin flip on binary variables) 
-				return rand.nextInt(Integer.parseInt(distparams[0]));
-			case 'G':
-				// Gamma distribution, for things that are generally small (but above 0), with some larger values - with optional min
-				if(distparams.length < 3) return(distSampler.drawGamma(rand, Double.parseDouble(distparams[0]), Double.parseDouble(distparams[1]), 0));
-				return distSampler.drawGamma(rand, Double.parseDouble(distparams[0]), Double.parseDouble(distparams[1]), Double.parseDouble(distparams[2]));
-			}
-		}catch(NumberFormatException e) {
-			// this and a few other things will result in returning NaN
+			Distribution dist = Distribution.get(code);
+			if(dist != null) return dist.draw(rand);
+		} catch(IllegalArgumentException e) {
+			// this will result in returning NaN
+		}
+		return Double.NaN;
+	}
+
+	/*
+	 * parses a distribution in the same form as parseRand, but instead of drawing randomly,
+	 * returns the value below which the given proportion (u) of draws would fall (if the code is invalid, it returns NaN)
+	 */
+	public double parseQuantile(double u, String code) {
+		try {
+			Distribution dist = Distribution.get(code);
+			if(dist != null) return dist.quantile(u);
+		} catch(IllegalArgumentException e) {
+			// same as parseRand, this will return NaN
 		}
 		return Double.NaN;
 	}
@@ -442,6 +1245,24 @@ public abstract class SimDataCollection extends SimState  {
 	 * Writes the header for a results file
 	 */
 	public void makeHeader(BufferedWriter writer, boolean time, boolean agent, String[] res) {
+		// if the results are normalized, each row starts with the run's ID instead of its seed and parameters
+		if(this.normalize) makeHeader(writer, "RunID", false, time, agent, res);
+		else makeHeader(writer, "Seed", true, time, agent, res);
+	}
+
+	/*
+	 * Writes the header for a results file with something other than the seed in the first column
+	 */
+	public void makeHeader(BufferedWriter writer, String first, boolean time, boolean agent, String[] res) {
+		makeHeader(writer, first, true, time, agent, res);
+	}
+
+	/*
+	 * Writes the header for a results file, with or without columns for the random and test parameters
+	 */
+	public void makeHeader(BufferedWriter writer, String first, boolean withparams, boolean time, boolean agent, String[] res) {
+		// if this is a resumed run, the file already has its header
+		if(this.finished != null) return;
 		try {
 			// start with the base parameters
 			writer.write("% Base Parameters: ");
@@ -484,30 +1305,18 @@ public abstract class SimDataCollection extends SimState  {
 			if(agent) {
 				writer.write(this.sep);
 			}
-			// indicate the random parameters
-			if(this.randparams.size() > 0) writer.write("Random Parameters");
-			// then leave enough space for each parameter
-			for(int r = 0; r < this.randparams.size(); r++) writer.write(this.sep);
-			// and indicate the test parameters if there are any
-			if(this.testparams.size() > 0) writer.write("Test Parameters");
-			// leave enough space for each parameter
-			for(int t = 0; t < this.testparams.size(); t++) writer.write(this.sep);
+			// indicate the random and test parameters
+			if(withparams) writer.write(paramLabels());
 			// then indicate categories for the results
 			writer.write("Results\n");
 			// start with the seed
-			writer.write("Seed" + this.sep);
+			writer.write(first + this.sep);
 			// if this file will hold time results, add an extra column for the timestep
 			if(time) {
 				writer.write("Timestep" + this.sep);
 			}
-			// loop through all the random parameters and add headers for each
-			for(int r = 0; r < this.randparams.size(); r++) {
-				writer.write(this.paramnames[this.randparams.get(r)] + this.sep);
-			}
-			// then loop through all the test parameters and add headers for each parameter
-			for(int t = 0; t < this.testparams.size(); t++) {
-				writer.write(this.paramnames[this.testparams.get(t)] + this.sep);
-			}
+			// then the headers for each random and test parameter
+			if(withparams) writer.write(paramColumns());
 			// if this file will hold agent data, add the headers for the categories of agent results
 			if(agent) {
 				writer.write("AgentID" + this.sep + "Agent" + this.sep);
@@ -525,70 +1334,608 @@ public abstract class SimDataCollection extends SimState  {
 	}
 
 	/*
-	 * In charge of running the sweeps recursively
+	 * The labels over the parameter columns in the header ("Random Parameters" and "Test Parameters" with enough space after each for its parameters)
 	 */
-	public void sweep(int tdex) {
-		// test each value of this parameter
-		for(int v = 0; v < this.testvals.get(tdex).size(); v++) {
-			// create a copy of params with this parameter value
-			//ArrayList<String> paramcopy = new ArrayList<String>(params);
-			this.params[this.testparams.get(tdex)] = this.testvals.get(tdex).get(v);
-			// if this isn't the last parameter, test the values of the remaining parameters
-			if(tdex < this.testparams.size()-1) {
-				sweep(tdex+1);
-			} else {
-				// otherwise, run this simulation
-				test();
-			}
-		}
+	public String paramLabels() {
+		String labels = "";
+		// indicate the random parameters
+		if(this.randparams.size() > 0) labels += "Random Parameters";
+		// then leave enough space for each parameter
+		for(int r = 0; r < this.randparams.size(); r++) labels += this.sep;
+		// and indicate the test parameters if there are any
+		if(this.testparams.size() > 0) labels += "Test Parameters";
+		// leave enough space for each parameter
+		for(int t = 0; t < this.testparams.size(); t++) labels += this.sep;
+		return labels;
 	}
 
 	/*
-	 * Actually runs the simulation on the provided parameters
+	 * The names of the random and then the test parameters, each followed by the separator
 	 */
-	public void test() {
-		System.out.println(Arrays.asList(this.params).toString());
-		// store the parameters for this run as a string for writing to file
-		String p = "";
-		// followed by all the random and test parameter values
+	public String paramColumns() {
+		String cols = "";
 		for(int r = 0; r < this.randparams.size(); r++) {
-			p += this.params[this.randparams.get(r)] + this.sep;
+			cols += this.paramnames[this.randparams.get(r)] + this.sep;
 		}
 		for(int t = 0; t < this.testparams.size(); t++) {
-			p += this.params[this.testparams.get(t)] + this.sep;
+			cols += this.paramnames[this.testparams.get(t)] + this.sep;
+		}
+		return cols;
+	}
+
+	/*
+	 * Writes the header for the design file, which has the ID, iteration, seed, and random and test parameter values of each run
+	 * (the base parameters are in the header of every results file)
+	 */
+	public void makeDesign() {
+		// a resumed run already has this
+		if(this.finished != null) return;
+		try {
+			this.designwriter.write("% Design: the seed and parameters of each run, joined to the results files by RunID"
+					+ " (java model.NormalizedReader <design file> <results file> puts them back in the results)\n");
+			this.designwriter.write("% " + this.sep + this.sep + this.sep + paramLabels() + "\n");
+			this.designwriter.write("RunID" + this.sep + "Iteration" + this.sep + "Seed" + this.sep + paramColumns() + "\n");
+		} catch(IOException e) {
+			System.out.println("Something went wrong while making the header...");
+			System.exit(0);
+		}
+	}
+
+	/*
+	 * Actually runs the simulation for the replicate with the given index in the design
+	 */
+	public void test(long u) {
+		this.unit = u;
+		this.iteration = this.design.iteration(u);
+		// grab the parameter values for this replicate
+		this.design.fill(u, this.params);
+		// and put back anything changed with resetParam
+		applyResets();
+		// store the random and test parameter values as a string for writing to file
+		// (only needs to be redone when moving on to the next combination of parameter values)
+		long point = u/this.design.reps();
+		if(point != this.lastpoint) {
+			System.out.println(Arrays.asList(this.params).toString());
+			this.lastpoint = point;
+			this.paramstring = "";
+			for(int r = 0; r < this.randparams.size(); r++) {
+				this.paramstring += this.params[this.randparams.get(r)] + this.sep;
+			}
+			for(int t = 0; t < this.testparams.size(); t++) {
+				this.paramstring += this.params[this.testparams.get(t)] + this.sep;
+			}
+		}
+		String p = this.paramstring;
+		// the seed for this run is the seed parameter, plus the replication number
+		int s = seed + this.design.replicate(u);
+		// if it's being resumed, skip replicates that were already finished
+		if(isFinished(u, s, p)) {
+			// (but still count its end results towards whether there have been enough replicates)
+			if(this.minreps > 0) {
+				recordEnds(u, this.finishedends.get(u));
+			}
+			this.done++;
+			return;
+		}
+		// if the number of replicates is adaptive, skip the rest once there have been enough
+		if(this.minreps > 0 && isConverged(u)) return;
+		// if it starts from a shared burn-in, make sure that's kept until it has it
+		if(this.burnin > 0) {
+			claimBurnin(u, this.params);
+		}
+		if(this.workers != null) {
+			// hand it off to a worker if running in parallel
+			submit(this.params.clone(), p, s, u);
+		} else {
+			// otherwise run it right here
+			SimDataCollection model = runReplicate(u, this.params, p, s);
+			double[] ends = model.getEnds();
+			recordEnds(u, ends);
+			recordSummary(u, model.summary, p);
+			finishReplicate(u, this.iteration, s, p, ends);
+		}
+	}
+	
+	/*
+	 * Runs a single replicate with the provided parameter values and seed, writing its results as it goes,
+	 * and returns the model it ran on (which is a copy if it was forked from a burn-in)
+	 */
+	public SimDataCollection runReplicate(long u, String[] params, String p, int s) {
+		// if there's a burn-in, start from a copy of the model at the end of it
+		if(this.burnin > 0) {
+			SimDataCollection model = restore(getBurnin(params));
+			// it writes to the same files
+			model.setWriters(getWriters());
+			// set the parameters that are only set after the burn-in
+			for(int f : this.forkdex) {
+				model.setParamVal(this.subclass, this.paramnames[f], params[f]);
+			}
+			// and reseed for this run
+			model.unit = u;
+			model.random.setSeed(s);
+			model.simulate(p, s);
+			return model;
+		}
+		this.unit = u;
+		// set model parameters from args (needs to be done fresh each time or they can build)
+		bindParams(u, params);
+		// reseed with the seed for this run
+		random.setSeed(s);
+		// start the simulation
+		start();
+		simulate(p, s);
+		return this;
+	}
+	
+	/*
+	 * Sets the parameters for a replicate, through the binder if it can be used, and otherwise through setParams
+	 */
+	public void bindParams(long u, String[] params) {
+		// the first time through, decide whether to use a binder
+		if(!this.bindchecked) {
+			this.bindchecked = true;
+			try {
+				// (if either way of setting parameters has been overridden, the override has to handle every parameter)
+				if(this.bindfields && getClass().getMethod("setParams", String[].class).getDeclaringClass() == SimDataCollection.class
+						&& getClass().getMethod("setParamVal", Class.class, String.class, String.class).getDeclaringClass() == SimDataCollection.class) {
+					this.binder = new ParamBinder(this, this.design);
+				}
+			} catch(NoSuchMethodException e) {
+				// can't happen, setParams and setParamVal are right here
+			}
+		}
+		// (the binder only knows the values in the design, so anything changed with resetParam has to go through setParams)
+		if(this.binder != null && (this.resets == null || this.resets.isEmpty())) {
+			// it doesn't know about the list of agents
+			this.agents = new Object[0];
+			this.binder.bind(this, u);
+		} else {
+			setParams(params);
+		}
+	}
+	
+	/*
+	 * Runs the simulation from wherever it is for the rest of the designated number of steps
+	 */
+	public void simulate(String p, int s) {
+		// if agent results are being summarized, start a new summary for this replicate
+		if(this.aggregate && this.agentres.length > 0) {
+			this.summary = new AgentSummary(this.agentres);
+		}
+		// and if only the changes in agent results are being written, start keeping track of them
+		if(this.agentdelta && !this.aggregate && this.agentres.length > 0) {
+			this.delta = new AgentDeltaEncoder(this.agentres, this.keyframe, this.sep, this.precision);
+		}
+		// and if only some of the agents are being written, start a new panel (which depends on the seed)
+		if(this.agentsample.trim().length() > 0) {
+			this.sampler = new AgentSampler(this.agentsample, s);
+		}
+		this.sampledstep = -1;
+		this.writtenstep = -1;
+		// same for the networks
+		if(this.netdelta && this.nets.length > 0) {
+			this.netdeltas = new NetworkDeltaEncoder[this.nets.length];
+			for(int i = 0; i < this.nets.length; i++) {
+				this.netdeltas[i] = new NetworkDeltaEncoder(this.keyframe, this.sep, this.precision);
+			}
+		}
+		for(StopCondition c : this.stops) {
+			c.reset();
+		}
+		this.stopreason = "steps";
+		// if the seed and parameters are in the design file, the results just get the run's ID instead
+		String params = this.normalize ? "" : p;
+		int key = this.normalize ? (int) this.unit : s;
+		// run the simulation for the designated number of steps
+		while(schedule.getSteps() < steps) {
+			// if this is the right step according to the test interval, write the results for this step
+			if(schedule.getSteps() >= teststart && schedule.getSteps()%testint == 0) {
+				writeResults(key, params, false);
+				// and check whether it's time to stop
+				String reason = checkStop();
+				if(reason != null) {
+					this.stopreason = reason;
+					break;
+				}
+			}
+			if (!schedule.step(this)) {
+				this.stopreason = "schedule";
+				break;
+			}
+		}
+		this.stopstep = schedule.getSteps();
+		// get the end results once it's all done
+		writeResults(key, params, true);
+		finish();
+	}
+	
+	/*
+	 * Finds the indices of the parameters that are only set after the burn-in, and sets up the shared store of burn-ins
+	 */
+	public void setForks() {
+		String[] names = this.forkparams.trim().length() > 0 ? this.forkparams.trim().split(" ") : new String[0];
+		this.forkdex = new int[names.length];
+		for(int f = 0; f < names.length; f++) {
+			this.forkdex[f] = Arrays.asList(this.paramnames).indexOf(names[f]);
+			if(this.forkdex[f] < 0) {
+				System.out.println(names[f] + " isn't a parameter, so it can't be set after the burn-in!");
+				System.exit(0);
+			}
+		}
+		if(this.burnin >= this.steps) {
+			System.out.println("The burn-in has to be shorter than the number of steps!");
+			System.exit(0);
+		}
+		this.burnins = new ConcurrentHashMap<String, Burnin>();
+		this.burniters = this.design.lastIterations(this.forkdex);
+	}
+	
+	/*
+	 * Hands out the burn-in for a replicate that's about to be run (before it's run, so the burn-in is kept until it has it),
+	 * and lets go of the ones the run has moved past
+	 */
+	public void claimBurnin(long u, String[] params) {
+		for(Map.Entry<String, Burnin> e : this.burnins.entrySet()) {
+			Burnin b = e.getValue();
+			synchronized(b) {
+				if(b.last < u) {
+					b.passed = true;
+					if(b.waiting == 0) dropBurnin(e.getKey(), b);
+				}
+			}
+		}
+		String[] burnparams = burnParams(params);
+		Burnin b = this.burnins.computeIfAbsent(String.join("\n", burnparams), k -> new Burnin(this.design.lastWith(u, this.forkdex, this.burniters)));
+		synchronized(b) {
+			b.waiting++;
+		}
+	}
+	
+	/*
+	 * Gets a snapshot of the model at the end of the burn-in for the given parameter values,
+	 * running the burn-in if it hasn't already been run for the values of all the parameters that are set before it
+	 */
+	public byte[] getBurnin(String[] params) {
+		String[] burnparams = burnParams(params);
+		String key = String.join("\n", burnparams);
+		Burnin b = this.burnins.get(key);
+		// the first one to get here runs the burn-in on its own model (so each worker only ever steps its own), and everyone else waits for it
+		// (a replicate that wasn't handed one by claimBurnin just runs its own)
+		FutureTask<Object> task = null;
+		if(b != null) {
+			synchronized(b) {
+				task = b.task;
+				if(task == null) b.task = new FutureTask<Object>(() -> runBurnin(burnparams));
+			}
+		}
+		if(task == null) {
+			task = b == null ? new FutureTask<Object>(() -> runBurnin(burnparams)) : b.task;
+			task.run();
+		}
+		try {
+			Object state = task.get();
+			// if it was saved to disk, read it back in
+			if(state instanceof File) {
+				return Files.readAllBytes(((File) state).toPath());
+			}
+			return (byte[]) state;
+		} catch(IOException e) {
+			throw new RuntimeException("Unable to read the burn-in back in", e);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for a burn-in", e);
+		} catch(ExecutionException e) {
+			throw new RuntimeException("The burn-in failed", e.getCause());
+		} finally {
+			if(b != null) {
+				synchronized(b) {
+					b.waiting--;
+					if(b.waiting == 0 && b.passed) dropBurnin(key, b);
+				}
+			}
+		}
+	}
+	
+	/*
+	 * The parameter values a burn-in is run with (the parameters set after the burn-in are left at their base values for it)
+	 */
+	public String[] burnParams(String[] params) {
+		String[] burnparams = params.clone();
+		for(int f : this.forkdex) {
+			burnparams[f] = this.design.base(f);
+		}
+		return burnparams;
+	}
+	
+	/*
+	 * Forgets a burn-in that nothing else is going to use (deleting it from disk if it was saved there)
+	 */
+	private void dropBurnin(String key, Burnin b) {
+		this.burnins.remove(key, b);
+		if(b.task == null || !b.task.isDone()) return;
+		try {
+			Object state = b.task.get();
+			if(state instanceof File) ((File) state).delete();
+		} catch(InterruptedException|ExecutionException e) {
+			// nothing to clean up
 		}
-		// run the same simulation for the designated number of replications
-		for(int i = 0; i < reps; i++) {
-			// set model parameters from args (needs to be done fresh each time or they can build)
-			setParams(this.params.clone());
-			// store the seed for this run
-			int s = seed+i;
-			// reseed with the seed parameter, plus the replication number
-			random.setSeed(s);
-			// start the simulation
-			start();
-			// run the simulation for the designated number of steps
-			while(schedule.getSteps() < steps) {
-				// if this is the right step according to the test interval, write the results for this step
-				if(schedule.getSteps() >= teststart && schedule.getSteps()%testint == 0) {
-					writeResults(s, p, false);
+	}
+	
+	/*
+	 * Runs the burn-in with the given parameter values (and the base seed), without collecting any results,
+	 * and returns a snapshot of the model at the end of it (or the name of the file it was saved to if burnsave is true)
+	 */
+	public Object runBurnin(String[] params) throws IOException {
+		setParams(params);
+		random.setSeed(this.seed);
+		start();
+		while(schedule.getSteps() < this.burnin) {
+			if(!schedule.step(this)) break;
+		}
+		byte[] state = snapshot();
+		if(state == null) {
+			throw new IOException("Unable to take a snapshot of the burn-in");
+		}
+		if(this.burnsave) {
+			// save it to disk instead of keeping it in memory
+			File prefix = new File(this.fname + getShardName() + "burnin").getAbsoluteFile();
+			File f = File.createTempFile(prefix.getName(), ".ser", prefix.getParentFile());
+			f.deleteOnExit();
+			Files.write(f.toPath(), state);
+			return f;
+		}
+		return state;
+	}
+	
+	/*
+	 * Parses the stop conditions, and decides whether to record when and why each simulation stopped
+	 */
+	public void setStops() {
+		try {
+			this.stops = StopCondition.parseAll(this.stop);
+		} catch(IllegalArgumentException e) {
+			System.out.println(e.getMessage());
+			System.exit(0);
+		}
+		try {
+			this.recordstop = this.stops.length > 0 || getClass().getMethod("checkStop").getDeclaringClass() != SimDataCollection.class;
+		} catch(NoSuchMethodException e) {
+			// can't happen, checkStop is right here
+		}
+	}
+	
+	/*
+	 * Checks whether the simulation should stop early, returning the reason if so (or null to keep going)
+	 * Checked every time timecourse results are collected, and can be overridden in the subclass to add other conditions
+	 */
+	public String checkStop() {
+		for(StopCondition c : this.stops) {
+			if(c.check(getResult(c.result, this, this.subclass))) {
+				return c.toString();
+			}
+		}
+		return null;
+	}
+	
+	/*
+	 * Sets up a pool of threads, each with its own copy of the model, for running replicates in parallel
+	 */
+	public void startWorkers() {
+		// make a copy of the model in its initial state for each thread to start from
+		byte[] state = snapshot();
+		if(state == null) {
+			System.out.println("Unable to copy the model for parallel runs, running serially instead.");
+			return;
+		}
+		// use all the available processors if the number of threads isn't given
+		int n = this.threads > 0 ? this.threads : Runtime.getRuntime().availableProcessors();
+		// each thread gets its own model the first time it needs one, and then reuses it
+		ConcurrentHashMap<String, Burnin> burnins = this.burnins;
+		ThreadLocal<SimDataCollection> models = ThreadLocal.withInitial(() -> {
+			SimDataCollection model = restore(state);
+			// all the workers share the same burn-ins
+			model.burnins = burnins;
+			return model;
+		});
+		this.workers = Executors.newFixedThreadPool(n, r -> {
+			Thread t = new Thread(r);
+			t.setDaemon(true);
+			return t;
+		});
+		this.workermodels = models;
+		this.pending = new ArrayDeque<Replicate>();
+		this.maxpending = 2*n;
+		this.nworkers = n;
+	}
+	
+	/*
+	 * Hands off a replicate to be run on a worker model, and writes out the results of any finished runs in order
+	 */
+	public void submit(String[] params, String p, int s, long u) {
+		// the worker's writers will mirror the ones that are open here, but write to memory
+		boolean[] open = new boolean[getWriters().length];
+		for(int w = 0; w < open.length; w++) {
+			open[w] = getWriters()[w] != null;
+		}
+		ThreadLocal<SimDataCollection> models = this.workermodels;
+		Replicate r = new Replicate(u, this.iteration, s, p);
+		r.out = this.workers.submit(() -> {
+			SimDataCollection model = models.get();
+			StringWriter[] buffers = new StringWriter[open.length];
+			BufferedWriter[] writers = new BufferedWriter[open.length];
+			for(int w = 0; w < open.length; w++) {
+				if(open[w]) {
+					buffers[w] = new StringWriter();
+					writers[w] = new BufferedWriter(buffers[w]);
+				}
+			}
+			model.setWriters(writers);
+			SimDataCollection done = model.runReplicate(u, params, p, s);
+			r.ends = done.getEnds();
+			r.summary = done.summary;
+			// then hand back everything that was written
+			String[] out = new String[open.length];
+			for(int w = 0; w < open.length; w++) {
+				if(open[w]) {
+					writers[w].flush();
+					out[w] = buffers[w].toString();
+				}
+			}
+			return out;
+		});
+		this.pending.add(r);
+		// don't let too many finished runs pile up in memory
+		while(this.pending.size() > this.maxpending) {
+			writePending();
+		}
+	}
+	
+	/*
+	 * Waits for the oldest parallel run to finish and writes its results to the actual files
+	 */
+	public void writePending() {
+		try {
+			Replicate r = this.pending.remove();
+			String[] out = r.out.get();
+			// if its combination of parameter values already had enough replicates, it wouldn't have been run serially, so it isn't written
+			if(this.minreps > 0 && r.unit/this.design.reps() == this.convergedpoint) return;
+			BufferedWriter[] writers = getWriters();
+			for(int w = 0; w < writers.length; w++) {
+				if(out[w] != null) {
+					writers[w].write(out[w]);
 				}
-				if (!schedule.step(this)) break;
 			}
-			// get the end results once it's all done
-			writeResults(s, p, true);
-			finish();
+			recordEnds(r.unit, r.ends);
+			recordSummary(r.unit, r.summary, r.params);
+			finishReplicate(r.unit, r.iteration, r.seed, r.params, r.ends);
+		} catch(InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while waiting for a parallel run", e);
+		} catch(ExecutionException e) {
+			// if the run itself failed, pass that along just as if it had happened here
+			throw new RuntimeException("A parallel run failed", e.getCause());
+		} catch(IOException e) {
+			throw new UncheckedIOException("Failed to write results to file", e);
+		}
+	}
+	
+	/*
+	 * Writes out all the remaining parallel runs and shuts down the pool
+	 */
+	public void stopWorkers() {
+		if(this.workers == null) return;
+		while(!this.pending.isEmpty()) {
+			writePending();
+		}
+		this.workers.shutdown();
+		this.workers = null;
+	}
+	
+	/*
+	 * Shuts down the pool without writing out the parallel runs that are still going (after something has gone wrong)
+	 */
+	public void abortWorkers() {
+		if(this.workers == null) return;
+		this.workers.shutdownNow();
+		this.workers = null;
+		this.pending.clear();
+	}
+	
+	/*
+	 * Returns all the results writers in a fixed order (with nulls for the ones that aren't in use)
+	 */
+	public BufferedWriter[] getWriters() {
+		int n = this.netwriters == null ? 0 : this.netwriters.length;
+		BufferedWriter[] writers = new BufferedWriter[6 + 2*n];
+		writers[0] = this.endwriter;
+		writers[1] = this.timewriter;
+		writers[2] = this.agentwriter;
+		writers[3] = this.listwriter;
+		writers[4] = this.agentlistwriter;
+		writers[5] = this.deltawriter;
+		for(int i = 0; i < n; i++) {
+			writers[6+i] = this.netwriters[i];
+			if(this.netdeltawriters != null) writers[6+n+i] = this.netdeltawriters[i];
+		}
+		return writers;
+	}
+	
+	/*
+	 * Replaces all the results writers, in the same order as getWriters
+	 */
+	public void setWriters(BufferedWriter[] writers) {
+		this.endwriter = writers[0];
+		this.timewriter = writers[1];
+		this.agentwriter = writers[2];
+		this.listwriter = writers[3];
+		this.agentlistwriter = writers[4];
+		this.deltawriter = writers[5];
+		if(writers.length > 6) {
+			int n = (writers.length - 6)/2;
+			this.netwriters = Arrays.copyOfRange(writers, 6, 6 + n);
+			this.netdeltawriters = Arrays.copyOfRange(writers, 6 + n, writers.length);
+		}
+	}
+	
+	/*
+	 * Serializes the model in its current state (returns null if some part of it can't be serialized)
+	 */
+	public byte[] snapshot() {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(this);
+			out.close();
+			return bytes.toByteArray();
+		} catch(IOException e) {
+			System.out.println("Unable to serialize the model: " + e);
+			return null;
+		}
+	}
+	
+	/*
+	 * Creates a new copy of a model from a snapshot
+	 */
+	public static SimDataCollection restore(byte[] state) {
+		try {
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(state));
+			SimDataCollection model = (SimDataCollection) in.readObject();
+			in.close();
+			return model;
+		} catch(IOException|ClassNotFoundException e) {
+			throw new RuntimeException("Unable to restore the model from a snapshot", e);
 		}
 	}
 
 	
 	/*
 	 * Allows the subclass to alter the value of a param (without having to mess with params directly...)
+	 * The new value carries over to later replicates until the sweep moves that parameter on to another value
+	 * (only in the model doing the sweeping, so not from replicates run in parallel)
 	 */
 	public void resetParam(String param, String val) {
 		// get index of param from paramnames, and then reassign that value in params
-		this.params[Arrays.asList(paramnames).indexOf(param)] = val;
+		int p = Arrays.asList(paramnames).indexOf(param);
 		// TODO - catch if it's not a real param
+		// remember the value from the design it replaced (the first time, if it's reset more than once)
+		if(this.resets == null) this.resets = new HashMap<Integer, String[]>();
+		String[] prev = this.resets.get(p);
+		this.resets.put(p, new String[] {prev == null ? this.params[p] : prev[0], val});
+		this.params[p] = val;
+	}
+	
+	/*
+	 * Puts values changed with resetParam back into params after they've been filled in from the design
+	 * (forgetting any whose parameter the sweep has moved on to another value)
+	 */
+	public void applyResets() {
+		if(this.resets == null) return;
+		Iterator<Map.Entry<Integer, String[]>> it = this.resets.entrySet().iterator();
+		while(it.hasNext()) {
+			Map.Entry<Integer, String[]> e = it.next();
+			if(this.params[e.getKey()].equals(e.getValue()[0])) this.params[e.getKey()] = e.getValue()[1];
+			else it.remove();
+		}
 	}
 	
 	/*
@@ -630,13 +1977,14 @@ public abstract class SimDataCollection extends SimState  {
 	/*
 	 * Actually tries to set a given parameter to a given value (provided as a string)
 	 * because I need to use this in a few places
+	 * (during runs, parameters that are fields are set directly unless bindfields is false or this is overridden, so this handles the rest)
 	 */
 	public void setParamVal(Class c, String pname, String pval) {
 		try{
 			Field f = c.getField(pname);
 			Class t = f.getType();
-			// if the provided value parses as instructions for drawing randomly, do that instead
-			double draw = parseRand(this.random, pval);
+			// if the provided value is instructions for drawing randomly, do that instead
+			double draw = Distribution.isCode(pval) ? parseRand(this.random, pval) : Double.NaN;
 			if(!Double.isNaN(draw)) {
 				pval = Double.toString(draw);
 				System.out.println(draw);
@@ -666,55 +2014,85 @@ public abstract class SimDataCollection extends SimState  {
 
 	/*
 	 * writes results to file after the test interval
+	 * (if normalize is true, s is the run's ID instead of its seed, and params is blank)
 	 */
 	public void writeResults(int s, String params, boolean end) {
-		// first get the subclass and agent class
-		setClasses();
+		// first make sure it knows how to get all the results
+		compileResults();
+		// if this step was already written (because the run stopped right after), only the end results are left to write
+		boolean again = end && this.writtenstep == this.schedule.getSteps();
+		this.writtenstep = this.schedule.getSteps();
 		// surround it all with a try catch for the file writing
 		try {
 			// get whole model results (if any have been designated for collection)
 			if(this.resnames.length > 0) {
-				// initialize the result string
-				String res = "";
-				// loop through each result and get the value
-				for(String r : this.resnames) {
-					res += getResult(r, this, this.subclass) + this.sep;
-				}
-				// write the seed, timestep, params, and results to the timecourse results
-				this.timewriter.write("" + s + this.sep + schedule.getSteps() + this.sep + params + res + "\n");
-				// if this is the end of a run, also add it to end results
+				// start the row with the seed, timestep, and params
+				this.row.clear().add(s).add(schedule.getSteps()).append(params);
+				int start = this.row.length();
+				// loop through each result and add the value
+				for(int r = 0; r < this.resnames.length; r++) {
+					this.resextractor.write(this.row, this, r, this);
+				}
+				// write it to the timecourse results
+				this.row.append('\n');
+				if(!again) this.row.writeTo(this.timewriter);
+				// if this is the end of a run, also add it to end results (reusing the results from the timecourse row)
 				if(end) {
-					this.endwriter.write("" + s + this.sep + params + res + "\n");
+					this.endrow.clear().add(s).append(params).append(this.row, start, this.row.length()-1);
+					// along with when and why it stopped if that's being recorded
+					if(this.recordstop) {
+						this.endrow.add(this.stopstep).add(this.stopreason);
+					}
+					this.endrow.append('\n').writeTo(this.endwriter);
 				}
 			}
 			// and get individual agent results (if any have been designated, and this is the right interval)
-			if(this.agentres.length > 0 && (this.agentint == 0 || this.schedule.getSteps()%this.agentint == 0)) {
-				// grab the agents from the schedule
-				Object[] schedagents = ((AccessibleSchedule)this.schedule).getAgents();
-				// loop through all agents in the schedule and on the list if additional agents have been added to it
-				for(int o = 0; o < this.agents.length + schedagents.length; o++) {
-					// grab the current agent from whichever list
-					Object a;
-					if(o < this.agents.length) {
-						a = this.agents[o];
-					}else {
-						a = ((IterativeRepeat)schedagents[o-this.agents.length]).getSteppable();
-					}
+			if(this.agentres.length > 0 && !again && (this.agentint == 0 || this.schedule.getSteps()%this.agentint == 0)) {
+				// catch the agents up with the list (the ones on the schedule are already there)
+				AgentRegistry registry = sampleAgents();
+				if(this.summary != null) this.summary.startStep(schedule.getSteps());
+				// if only changes are being written, only some samples get written in full
+				boolean full = this.delta == null || this.delta.startSample();
+				// loop through all the agents on the schedule and the list (each one once)
+				for(int i = 0; i < registry.size(); i++) {
+					// grab the current agent and its ID
+					Object a = registry.get(i);
+					int o = registry.id(i);
+					// skip it if it isn't in the panel
+					if(this.sampler != null && !this.sampler.includes(o)) continue;
+					// if they're being summarized, just add them to the summary
+					if(a != null && this.summary != null) {
+						for(int r = 0; r < this.agentres.length; r++) {
+							this.summary.add(r, this.agentextractor.getNumber(this, r, a));
+						}
 					// make sure the agent isn't null (there's no reason to print out all those empty lines)
-					if(a != null) {
-						// initialize a string for the results for this agent
-						String res = "";
-						//  loop through each result and get the corresponding value
-						for(String r : this.agentres) {
-							res += getResult(r, a, this.agentclass) + this.sep;
+					} else if(a != null) {
+						// start the row with params and the agent's number
+						this.row.clear().add(s).add(schedule.getSteps()).append(params).add(o);
+						this.agentbounds[0] = this.row.length();
+						this.row.add(a);
+						//  loop through each result and add the corresponding value
+						for(int r = 0; r < this.agentres.length; r++) {
+							this.agentbounds[r+1] = this.row.length();
+							this.agentextractor.write(this.row, this, r, a);
+						}
+						this.agentbounds[this.agentres.length+1] = this.row.length();
+						// write out whatever changed since the last sample
+						if(this.delta != null) {
+							this.delta.record(this.row, this.agentbounds, o, this.deltawriter);
+						}
+						// and write it to the agent results
+						if(full) {
+							this.row.append('\n').writeTo(this.agentwriter);
 						}
-						// write params, the agent's number, and the results to the agent results
-						this.agentwriter.write("" + s + this.sep + schedule.getSteps() + this.sep + params + o + this.sep + a + this.sep + res + "\n");
 					}
 				}
+				if(this.delta != null) {
+					this.delta.finishSample(s, schedule.getSteps(), params, this.deltawriter);
+				}
 			}
 			// also get network results (if any networks have been provided to test, and this is the right interval)
-			if(this.nets.length > 0 && (this.netint == 0 || this.schedule.getSteps()%this.netint == 0)) {
+			if(this.nets.length > 0 && !again && (this.netint == 0 || this.schedule.getSteps()%this.netint == 0)) {
 				// for each network
 				for(int i = 0; i < this.nets.length; i ++) {
 					// this will all be under a try-catch because I have to use reflection to get the networks
@@ -724,15 +2102,18 @@ public abstract class SimDataCollection extends SimState  {
 						// and this grabs the actual network belonging to this object
 						Network n = (Network) f.get(this);
 						// make sure the network isn't null
-						if(n != null) {
+						if(n != null && this.netdeltas != null) {
+							// if only the changes are being written, the encoder goes through it
+							this.netdeltas[i].record(n, s, schedule.getSteps(), params, this.netwriters[i], this.netdeltawriters[i]);
+						} else if(n != null) {
 							// then I can go through the network and add all the edges to the file
 							for(Edge[] edges : n.getAdjacencyList(true)) {
 								for(Edge e : edges) {
 									// make sure it's not trying to access a null edge, just in case
 									if(e != null) {
 										// add that edge to the file (along with all the other info about the run that it's part of)
-										this.netwriters[i].write("" + s + this.sep + schedule.getSteps() + this.sep + params + e.getFrom() + this.sep + 
-												e.getTo() + this.sep + e.getInfo() + this.sep + "\n");
+										this.row.clear().add(s).add(schedule.getSteps()).append(params).add(e.getFrom())
+												.add(e.getTo()).add(e.getInfo()).append('\n').writeTo(this.netwriters[i]);
 									}
 								}
 							}
@@ -745,33 +2126,64 @@ public abstract class SimDataCollection extends SimState  {
 				}
 			}
 			// and finally get list results
-			if(this.listint == 0 || this.schedule.getSteps()%this.listint == 0) {
+			if(!again && (this.listint == 0 || this.schedule.getSteps()%this.listint == 0)) {
 				// at the model level
 				if(this.lists.length > 0) {
 					// loop through each list and print it out
-					for(String l : this.lists) {
-						String lres = getResult(l, this, this.subclass);
-						// write the seed, timestep, params, and results to the timecourse results
-						this.listwriter.write("" + s + this.sep + schedule.getSteps() + this.sep + params + l + this.sep + lres + "\n");
+					for(int r = 0; r < this.lists.length; r++) {
+						// write the seed, timestep, params, and results to the timecourse results (the list goes straight into the row)
+						this.row.clear().add(s).add(schedule.getSteps()).append(params).add(this.lists[r]);
+						this.listextractor.writeList(this.row, this, r, this, this.listsum);
+						this.row.append('\n').writeTo(this.listwriter);
 					}
 				}
 				// and the agent level
 				if(this.agentlists.length > 0) {
-					for(String l : this.agentlists) {
+					AgentRegistry registry = sampleAgents();
+					for(int r = 0; r < this.agentlists.length; r++) {
 						for(int i = 0; i < this.agents.length; i++) {
 							if(this.agents[i] != null) {
-								String lres = getResult(l, this.agents[i], this.agentclass);
-								this.agentlistwriter.write("" + s + this.sep + schedule.getSteps() + this.sep + params + i + this.sep + this.agents[i] + this.sep + l + this.sep + lres + "\n");
+								// (only the ones in the panel if there is one)
+								int id = registry.idOf(this.agents[i]);
+								if(this.sampler != null && !this.sampler.includes(id)) continue;
+								this.row.clear().add(s).add(schedule.getSteps()).append(params).add(id).add(this.agents[i]).add(this.agentlists[r]);
+								this.agentlistextractor.writeList(this.row, this, r, this.agents[i], this.listsum);
+								this.row.append('\n').writeTo(this.agentlistwriter);
 							}
 						}
 					}
 				}
 			}
 		} catch(IOException e) {
-			System.out.println("Failed to write results to file...");
+			// don't keep running simulations whose results can't be saved
+			throw new UncheckedIOException("Failed to write results to file", e);
 		}
 	}
 	
+	/*
+	 * Looks up how to get each result (once, unless the classes change)
+	 */
+	public void compileResults() {
+		if(this.subclass == null) setClasses();
+		if(this.resextractor != null && this.resextractor.c == this.subclass && this.agentextractor.c == this.agentclass) return;
+		// if getResult has been overridden, the override has to see every result
+		boolean direct = this.extractfields;
+		try {
+			direct = direct && getClass().getMethod("getResult", String.class, Object.class, Class.class).getDeclaringClass() == SimDataCollection.class;
+		} catch(NoSuchMethodException e) {
+			// can't happen, getResult is right here
+		}
+		this.resextractor = new ResultExtractor(this.subclass, this.resnames, direct);
+		this.agentextractor = new ResultExtractor(this.agentclass, this.agentres, direct);
+		this.listextractor = new ResultExtractor(this.subclass, this.lists, direct);
+		this.agentlistextractor = new ResultExtractor(this.agentclass, this.agentlists, direct);
+		this.row = new RowEncoder(this.sep, this.precision);
+		this.endrow = new RowEncoder(this.sep, this.precision);
+		this.agentbounds = new int[this.agentres.length + 2];
+		this.listsum = this.listsummary.trim().length() > 0 ? new ListSummary(this.listsummary, this.quantilevals) : null;
+		this.strataextractor = this.agentstrata.trim().length() > 0 ? new ResultExtractor(this.agentclass, new String[] {this.agentstrata.trim()}, direct) : null;
+	}
+
 	/*
 	 * Gets the value of a result parameter for a given object of a given class, and returns it as a string
 	 * Should be modified for special cases in the subclass
@@ -786,15 +2198,8 @@ public abstract class SimDataCollection extends SimState  {
 				Field f = c.getField(res);
 				// get the value of that field
 				Object val = f.get(o);
-				// then check if it's a list to add its values
-				if(val instanceof Collection) {
-					p = Arrays.toString(((Collection)val).toArray());
-				} else if(val.getClass().isArray()) {
-					p = Arrays.toString((Object[])val);
-				}else {
-					// otherwise add it to the string directly
-					p += f.get(o);
-				}
+				// then add it to the string (listing out the values if it's a list)
+				p = ResultExtractor.format(val);
 				// things that don't handle this well will just have to be dealt with elsewhere
 			} catch(NoSuchFieldException e) {
 				// that's okay, this will just have to be dealt with in the subclass
@@ -830,6 +2235,12 @@ public abstract class SimDataCollection extends SimState  {
 					+ "%\tparameter = C(<number of discrete options>)\n"
 					+ "%\tparameter = N(<mean>,<standard deviation>)\n"
 					+ "%\tparameter = G(<mean>,<standard deviation>,<optional minimum>)\n"
+					+ "% or from a lognormal (L), beta (B), truncated normal (T), Poisson (P), or weighted discrete (D) distribution in the form:\n"
+					+ "%\tparameter = L(<mean of log>,<standard deviation of log>)\n"
+					+ "%\tparameter = B(<mean>,<inverse square root sample size>)\n"
+					+ "%\tparameter = T(<mean>,<standard deviation>,<minimum>,<maximum>)\n"
+					+ "%\tparameter = P(<mean>)\n"
+					+ "%\tparameter = D(<weight of 0>,<weight of 1>,...)\n"
 					+ "% To collect data on a field at the model level, leave the line empty as follows:\n"
 					+ "%\tresult = \n"
 					+ "% All fields that you don't want to set or collect, including key parameters, should be removed."
@@ -863,7 +2274,35 @@ public abstract class SimDataCollection extends SimState  {
 					+ "*gui =  % whether the simulation runs with or without GUI (defaults to false, only runs the initial set of parameter values if true)\n"
 					+ "*agentint =  % how often agent-level data is collected (defaults to testint)\n"
 					+ "*netint =  % how often edgelists are outputted (defaults to testint)\n"
-					+ "*listint = % how often list-type data is outputted (defaults to testint)\n");
+					+ "*listint = % how often list-type data is outputted (defaults to testint)\n"
+					+ "*threads =  % number of replicates run at the same time, each on its own copy of the model (defaults to 1, 0 uses all available processors)\n"
+					+ "*shard =  % only run one shard of the replicates, in the form <shard>/<number of shards> with shards numbered from 0 (defaults to running everything)\n"
+					+ "*resume =  % whether to keep a journal of finished replicates and pick up from it if the run is restarted (defaults to false)\n"
+					+ "*sampling =  % how the random parameters are drawn for each iteration: random (independently, the default), lhs (Latin hypercube), sobol, or halton\n"
+					+ "*minreps =  % if above 0, the number of replicates is adaptive: at least this many, and then more (up to reps) until the results converge (defaults to 0)\n"
+					+ "*citarget =  % with adaptive replicates, stop once the 95% confidence interval is within this much of the mean for all the watched results\n"
+					+ "*ciresults =  % the model results watched for adaptive replicates, separated by spaces (defaults to all model results)\n"
+					+ "*stop =  % conditions for ending each simulation early, separated by semicolons, checked whenever timecourse data is collected:"
+					+ " <result> <eq, ne, lt, le, gt, or ge> <value>, or <result> steady <epsilon> <number of checks>\n"
+					+ "*burnin =  % if above 0, the number of steps of a burn-in that's run once and then copied for every replicate and combination of forkparams (defaults to 0)\n"
+					+ "*forkparams =  % parameters that are only set after the burn-in, separated by spaces (all other parameters are shared by the burn-in)\n"
+					+ "*burnsave =  % whether to save the burn-ins to disk instead of keeping them in memory (defaults to false)\n"
+					+ "*precision =  % number of decimal places to round decimal results to (defaults to -1, which writes them in full)\n"
+					+ "*format =  % text or columnar, which writes timecourse, agent, and network results to smaller binary .col files that can be converted back with ColumnarReader (defaults to text)\n"
+					+ "*compress =  % whether to gzip the text results files as they're written (defaults to false)\n"
+					+ "*async =  % whether to write results files on a separate thread so simulations don't wait on the disk (defaults to false)\n"
+					+ "*backpressure =  % block or grow, what to do when results are coming faster than they can be written with async (defaults to block, which waits)\n"
+					+ "*aggregate =  % whether to write summary statistics of the agent results for each set of replicates to '<fname>agentsummary.txt' instead of every agent's results (defaults to false)\n"
+					+ "*quantiles =  % which quantiles of the agent results to include in the summary of agent results or lists (defaults to 0.05 0.25 0.5 0.75 0.95)\n"
+					+ "*agentdelta =  % whether to only write agent results that changed since the last sample to '<fname>agentdelta.txt', with full samples in the agent results file (defaults to false, see AgentDeltaReader)\n"
+					+ "*keyframe =  % how many samples between full ones when writing agent or network deltas (defaults to 0, just the first)\n"
+					+ "*agentsample =  % a fraction of agents (below 1) or a number of agents to write agent results for, picked based on the seed and followed the whole run (defaults to blank, all of them)\n"
+					+ "*agentstrata =  % an agent result to stratify the agent sample by, so the fraction or number is for each of its values (defaults to blank, no strata)\n"
+					+ "*listsummary =  % quantiles or histogram(<min>,<max>,<bins>) to write a summary of each list result instead of all its values (defaults to blank, all the values)\n"
+					+ "*nio =  % whether to write text results files through NIO channels with big direct buffers instead of the usual FileWriters (the files are the same, defaults to false)\n"
+					+ "*store =  % whether to also put all the results in <fname>results.store, which ResultStoreReader can read by design point, seed, and step without going through everything (defaults to false)\n"
+					+ "*normalize =  % whether to start each row of results with just the run's ID instead of its seed and parameters, which go in <fname>design.txt instead (defaults to false)\n"
+					+ "*netdelta =  % whether to only write the edges added and removed since the last sample to '<fname><network>edgedelta.txt', with full samples in the edgelist (defaults to false, see NetworkDeltaReader)\n");
 			// initialize the list of parameter names
 			setNames();
 			// then add all the listed input parameters
@@ -981,13 +2420,74 @@ public abstract class SimDataCollection extends SimState  {
 		}
 	}
 	
+	/*
+	 * A burn-in shared by every replicate with the same parameter values apart from the ones set after it
+	 */
+	static class Burnin {
+		// running it (set by the first replicate to need it, which runs it on its own model)
+		FutureTask<Object> task;
+		// the last replicate in the run that could use it, how many of the ones handed it haven't gotten it yet,
+		// and whether the run has moved past the last one
+		final long last;
+		int waiting = 0;
+		boolean passed = false;
+		
+		Burnin(long last) {
+			this.last = last;
+		}
+	}
+	
+	/*
+	 * A replicate that has been handed off to a worker, along with what's needed to record it once it's written
+	 */
+	static class Replicate {
+		long unit;
+		int iteration;
+		int seed;
+		String params;
+		// everything it wrote, and its end results for deciding the number of replicates (filled in by the worker)
+		Future<String[]> out;
+		double[] ends;
+		AgentSummary summary;
+		
+		Replicate(long unit, int iteration, int seed, String params) {
+			this.unit = unit;
+			this.iteration = iteration;
+			this.seed = seed;
+			this.params = params;
+		}
+	}
+	
 	/*
 	 * A subclass of schedule for the express purpose of being able to grab all of the agents in the schedule
+	 * (everything scheduled to repeat is added to the registry as it's scheduled, so the schedule never has to be copied to find them)
 	 */
 	class AccessibleSchedule extends Schedule{
+		public final AgentRegistry registry = new AgentRegistry();
+
+		/*
+		 * Returns everything in the schedule (this copies the whole thing, the registry is usually a better bet)
+		 */
 		public Object[] getAgents(){
 			return this.queue.getObjects();
 		}
+
+		// all the other ways of scheduling something to repeat go through this one
+		public IterativeRepeat scheduleRepeating(double time, int ordering, Steppable event, double interval) {
+			IterativeRepeat repeat = super.scheduleRepeating(time, ordering, event, interval);
+			this.registry.addScheduled(repeat);
+			return repeat;
+		}
+
+		public void reset() {
+			super.reset();
+			this.registry.clear();
+		}
+
+		public void clear() {
+			super.clear();
+			this.registry.clear();
+		}
 	}
 	
 }
@@ -0,0 +1,119 @@
+package model;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+
+/*
+ * A condition on a model result that ends a simulation early, checked each time timecourse results are collected.
+ * Written in the input file as one of:
+ * 	<result> <eq, ne, lt, le, gt, or ge> <value>	(compared to a value)
+ * 	<result> steady <epsilon> <window>	(stayed within epsilon over the last window times it was checked)
+ */
+public class StopCondition implements Serializable {
+
+	// the result to check
+	public String result;
+	// how to check it
+	public String op;
+	// the value to compare it to (and as a number if it is one)
+	public String value;
+	public double num;
+	// for steady conditions, how much it can vary and for how many checks
+	public double epsilon;
+	public int window;
+	// the most recent values (for steady conditions), and how many have been seen this simulation
+	private double[] history;
+	private int seen;
+
+	/*
+	 * Parses a condition (throws an IllegalArgumentException if it isn't formatted correctly)
+	 */
+	public StopCondition(String code) {
+		String[] split = code.trim().split("\\s+");
+		if(split.length < 3) throw new IllegalArgumentException("Stop condition needs a result, a comparison, and a value: " + code);
+		this.result = split[0];
+		this.op = split[1];
+		this.value = split[2];
+		try {
+			if(this.op.equals("steady")) {
+				if(split.length < 4) throw new IllegalArgumentException("Steady stop condition needs an epsilon and a window: " + code);
+				this.epsilon = Double.parseDouble(split[2]);
+				this.window = Integer.parseInt(split[3]);
+				if(this.window < 2) throw new IllegalArgumentException("Steady stop condition needs a window of at least 2: " + code);
+				this.history = new double[this.window];
+			} else if(op.matches("eq|ne|lt|le|gt|ge")) {
+				this.num = parseNum(this.value);
+			} else {
+				throw new IllegalArgumentException("Unknown comparison in stop condition: " + code);
+			}
+		} catch(NumberFormatException e) {
+			throw new IllegalArgumentException("Stop condition not formatted correctly: " + code);
+		}
+	}
+
+	/*
+	 * Parses a list of conditions separated by semicolons
+	 */
+	public static StopCondition[] parseAll(String codes) {
+		ArrayList<StopCondition> conds = new ArrayList<StopCondition>();
+		for(String code : codes.split(";")) {
+			if(code.trim().length() > 0) conds.add(new StopCondition(code));
+		}
+		return conds.toArray(new StopCondition[conds.size()]);
+	}
+
+	/*
+	 * Clears out the values seen, for the start of a new simulation
+	 */
+	public void reset() {
+		this.seen = 0;
+	}
+
+	/*
+	 * Checks the condition against the current value of the result
+	 */
+	public boolean check(String val) {
+		double x = parseNum(val);
+		switch(this.op) {
+		case "eq":
+			return val.equals(this.value) || x == this.num;
+		case "ne":
+			return !val.equals(this.value) && !(x == this.num);
+		case "lt":
+			return x < this.num;
+		case "le":
+			return x <= this.num;
+		case "gt":
+			return x > this.num;
+		case "ge":
+			return x >= this.num;
+		}
+		// otherwise it's steady: keep the last window values and check whether they're all within epsilon
+		this.history[this.seen % this.window] = x;
+		this.seen++;
+		if(this.seen < this.window) return false;
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for(double h : this.history) {
+			min = Math.min(min, h);
+			max = Math.max(max, h);
+		}
+		return max - min <= this.epsilon;
+	}
+
+	/*
+	 * The condition as a single word, for recording why a simulation stopped
+	 */
+	public String toString() {
+		if(this.op.equals("steady")) return this.result + "_steady_" + this.epsilon + "_" + this.window;
+		return this.result + "_" + this.op + "_" + this.value;
+	}
+
+	private static double parseNum(String val) {
+		try {
+			return Double.parseDouble(val);
+		} catch(NumberFormatException e) {
+			return Double.NaN;
+		}
+	}
+}
@@ -1,45 +1,40 @@
 package model;
 
+import java.io.Serializable;
+
 import ec.util.MersenneTwisterFast;
-import sim.util.distribution.Beta;
-import sim.util.distribution.Distributions;
+import sim.util.distribution.Probability;
 
+/*
+ * Helpers for drawing from the distributions models usually need.
+ * The static draw methods don't allocate anything, and for drawing the same distribution over and over
+ * (e.g. initializing a lot of agents) the sampler classes below work out everything that doesn't depend on the draw once,
+ * and can fill a whole array at a time. Everything only uses the random number generator it's given,
+ * so draws are reproducible for a given seed.
+ */
 public class distSampler {
 	
 	/*
-	 * helper utility to  draw a random value from a normal distribution within a certain range using a while-loop
-	 * TODO - phase out
+	 * helper utility to draw a random value from a normal distribution within a certain range
+	 * (now draws directly from the truncated normal, so it takes about the same time wherever the range is)
 	 */
 	public static double drawRange(MersenneTwisterFast random, double val, double var, double min, double max) {
-		boolean within = false;
-		double draw = 0;
-		while(!within) {
-			// draw variance from a normal distribution
-			draw = random.nextGaussian()*var;
-			// check to see if its in the right range;
-			if(val+draw >= min && val+draw <= max) {
-				within = true;
-			}
-		}
-		// once a reasonable value has been found, return it
-		return draw+val;
+		return TruncatedNormalSampler.draw(random, val, var, min, max);
 	}
 	
 	/*
 	 * helper utility to draw a random value from a nicely shaped Erlang distribution (based around mode and standard deviation)
-	 * 	(note: struggles with large values - algorithm runs mean^2/var iterations
-	 *   scale by dividing mean and sd by a constant, convert sd to variance by squaring, and then scale back up the result)
+	 *   (this used to take mean^2/var iterations, but now draws the same Erlang as a gamma with a whole number shape in constant time)
 	 *   TODO - phase out for GammaNormalized
 	 */
 	public static double drawErlang(MersenneTwisterFast random, double mode, double sd) {
-		// if the standard deviation is too low, just use a normal, that should be fine (otherwise it'll take a while and return infs)
+		// if the standard deviation is too low, just use a normal, that should be fine
 		if(sd < .02) return drawRange(random, mode, sd, 0, Double.MAX_VALUE);
 		double v = Math.pow(2*sd, 2);
 		double m = (1+Math.sqrt(1 + 4*v))/2;
-		// switch to draw from Gamma
-		double draw = Distributions.nextErlang(v, m, random);
-		if(draw == Double.POSITIVE_INFINITY) return mode;
-		return draw*mode;
+		// an Erlang with this mean and variance has shape m^2/v (rounded) and rate shape/m
+		int k = Math.max((int) (m*m/v + .5), 1);
+		return standardGamma(random, k)*m/k*mode;
 	}
 	
 	/*
@@ -50,11 +45,34 @@ public class distSampler {
 	}
 	
 	/*
-	 * Wrapper for GammaNormalized that adjusts the mean and min
+	 * Draws from the same gamma as GammaNormalized (mean 1 and the given standard deviation), scaled to the mean and min
 	 */
 	public static double drawGamma(MersenneTwisterFast random, double mean, double sd, double min) {
-		GammaNormalized gamma = GammaNormalized.initialize(sd, random);
-		return gamma.nextDouble()*(mean-min) + min;
+		if(sd == 0) return mean;
+		double k = 1.0/(sd*sd);
+		return standardGamma(random, k)/k*(mean-min) + min;
+	}
+	
+	/*
+	 * Inverse of the distribution drawGamma draws from: the value below which a proportion u of draws fall
+	 */
+	public static double gammaQuantile(double u, double mean, double sd, double min) {
+		if(sd == 0) return mean;
+		// GammaNormalized has shape and rate both equal to 1/sd^2 (so a mean of 1)
+		double k = 1.0/(sd*sd);
+		// bracket the value and then narrow it down by bisection
+		double lo = 0;
+		double hi = 1;
+		while(Probability.gamma(k, k, hi) < u) {
+			lo = hi;
+			hi *= 2;
+		}
+		for(int i = 0; i < 100 && hi - lo > 1e-15*hi; i++) {
+			double mid = (lo + hi)/2;
+			if(Probability.gamma(k, k, mid) < u) lo = mid;
+			else hi = mid;
+		}
+		return (lo + hi)/2*(mean-min) + min;
 	}
 	
 	/*
@@ -63,9 +81,7 @@ public class distSampler {
 	public static double drawBetaMode(MersenneTwisterFast random, double mode, double var) {
 		double a = mode*(500*var)+1;
 		double b = (1-mode)*(500*var)+1;
-		Beta beta = new Beta(a, b, random);
-		double draw = beta.nextDouble();
-		return draw;
+		return beta(random, a, b);
 	}
 	
 	/*
@@ -78,7 +94,247 @@ public class distSampler {
 		mean = Math.min(Math.max(mean, .0001), .9999);
 		double a = mean/Math.pow(var, 2);
 		double b = (1-mean)/Math.pow(var, 2);
-		Beta beta = new Beta(a, b, random);
-		return beta.nextDouble();
+		return beta(random, a, b);
+	}
+	
+	/*
+	 * Draws from a gamma with the given shape and a rate of 1, using Marsaglia and Tsang's method
+	 * (shapes below 1 are drawn with a shape of 1 more and then scaled down, which they also describe)
+	 */
+	public static double standardGamma(MersenneTwisterFast random, double shape) {
+		if(shape < 1) {
+			return standardGamma(random, shape + 1)*Math.pow(random.nextDouble(false, false), 1/shape);
+		}
+		double d = shape - 1.0/3;
+		return marsagliaTsang(random, d, 1/Math.sqrt(9*d));
+	}
+	
+	/*
+	 * The rejection loop of Marsaglia and Tsang's method (d and c only depend on the shape), which accepts over 95% of the time
+	 */
+	private static double marsagliaTsang(MersenneTwisterFast random, double d, double c) {
+		while(true) {
+			double x = random.nextGaussian();
+			double v = 1 + c*x;
+			if(v <= 0) continue;
+			v = v*v*v;
+			double u = random.nextDouble();
+			double x2 = x*x;
+			if(u < 1 - .0331*x2*x2) return d*v;
+			if(Math.log(u) < .5*x2 + d*(1 - v + Math.log(v))) return d*v;
+		}
+	}
+	
+	/*
+	 * Draws from a beta with shapes a and b as the ratio of two gammas
+	 */
+	public static double beta(MersenneTwisterFast random, double a, double b) {
+		double x = standardGamma(random, a);
+		double y = standardGamma(random, b);
+		// with tiny shapes, both can underflow to zero, in which case the beta is essentially a coin flip between 0 and 1
+		if(x + y == 0) return random.nextDouble() < a/(a+b) ? 1 : 0;
+		return x/(x + y);
+	}
+	
+	/*
+	 * Draws from a Poisson distribution with the given mean
+	 * (multiplying uniforms for small means, and Hormann's transformed rejection for large ones, so it doesn't take mean iterations)
+	 */
+	public static int drawPoisson(MersenneTwisterFast random, double mean) {
+		if(mean <= 0) return 0;
+		if(mean < 30) {
+			double limit = Math.exp(-mean);
+			double prod = random.nextDouble();
+			int k = 0;
+			while(prod > limit) {
+				prod *= random.nextDouble();
+				k++;
+			}
+			return k;
+		}
+		double slam = Math.sqrt(mean);
+		double loglam = Math.log(mean);
+		double b = 0.931 + 2.53*slam;
+		double a = -0.059 + 0.02483*b;
+		double invalpha = 1.1239 + 1.1328/(b - 3.4);
+		double vr = 0.9277 - 3.6224/(b - 2);
+		while(true) {
+			double u = random.nextDouble() - 0.5;
+			double v = random.nextDouble();
+			double us = 0.5 - Math.abs(u);
+			int k = (int) Math.floor((2*a/us + b)*u + mean + 0.43);
+			if(us >= 0.07 && v <= vr) return k;
+			if(k < 0 || (us < 0.013 && v > us)) continue;
+			if(Math.log(v) + Math.log(invalpha) - Math.log(a/(us*us) + b) <= -mean + k*loglam - Probability.logGamma(k+1)) return k;
+		}
+	}
+	
+	/*
+	 * Repeated draws from a gamma with a given mean, standard deviation, and minimum (the same one as drawGamma)
+	 */
+	public static class GammaSampler implements Serializable {
+		public final double mean, sd, min;
+		// shape, whether it has to be boosted up by one (shape below 1), and Marsaglia and Tsang's constants
+		private final double shape, d, c;
+		private final boolean boost;
+
+		public GammaSampler(double mean, double sd, double min) {
+			this.mean = mean;
+			this.sd = sd;
+			this.min = min;
+			this.shape = sd == 0 ? 0 : 1.0/(sd*sd);
+			this.boost = this.shape < 1;
+			this.d = (this.boost ? this.shape + 1 : this.shape) - 1.0/3;
+			this.c = 1/Math.sqrt(9*this.d);
+		}
+
+		public double next(MersenneTwisterFast random) {
+			if(this.sd == 0) return this.mean;
+			double g = marsagliaTsang(random, this.d, this.c);
+			if(this.boost) g *= Math.pow(random.nextDouble(false, false), 1/this.shape);
+			return g/this.shape*(this.mean-this.min) + this.min;
+		}
+
+		public void fill(MersenneTwisterFast random, double[] out) {
+			for(int i = 0; i < out.length; i++) {
+				out[i] = next(random);
+			}
+		}
+	}
+	
+	/*
+	 * Repeated draws from a beta with a given mean and inverse square root sample size (the same one as drawBeta)
+	 */
+	public static class BetaSampler implements Serializable {
+		// the shapes (or just the mean, if the variation is too small to divide by)
+		public final double a, b, mean;
+		private final boolean fixed;
+		private final GammaSampler x, y;
+
+		public BetaSampler(double mean, double var) {
+			this.fixed = var < .0001;
+			this.mean = this.fixed ? mean : Math.min(Math.max(mean, .0001), .9999);
+			this.a = this.mean/Math.pow(var, 2);
+			this.b = (1-this.mean)/Math.pow(var, 2);
+			// gammas with a mean equal to the shape are just the standard gamma
+			this.x = new GammaSampler(this.a, 1/Math.sqrt(this.a), 0);
+			this.y = new GammaSampler(this.b, 1/Math.sqrt(this.b), 0);
+		}
+
+		public double next(MersenneTwisterFast random) {
+			if(this.fixed) return this.mean;
+			double gx = this.x.next(random);
+			double gy = this.y.next(random);
+			if(gx + gy == 0) return random.nextDouble() < this.a/(this.a+this.b) ? 1 : 0;
+			return gx/(gx + gy);
+		}
+
+		public void fill(MersenneTwisterFast random, double[] out) {
+			for(int i = 0; i < out.length; i++) {
+				out[i] = next(random);
+			}
+		}
+	}
+	
+	/*
+	 * Repeated draws from a normal truncated to between min and max (the same one as drawRange).
+	 * Works on the standard normal between the standardized bounds and picks whichever proposal will be accepted quickest
+	 * (following Robert, 1995): the normal itself for wide ranges around the mean, a uniform for narrow ranges,
+	 * and an exponential for ranges out in one tail, so the expected number of tries is bounded no matter where the range is.
+	 */
+	public static class TruncatedNormalSampler implements Serializable {
+		// how to draw
+		private static final int FIXED = 0, NORMAL = 1, UNIFORM = 2, TAIL = 3;
+		public final double mean, sd, min, max;
+		// standardized bounds (flipped to the upper tail if the range is in the lower tail)
+		private final double lo, hi;
+		private final boolean flip;
+		private final int method;
+
+		public TruncatedNormalSampler(double mean, double sd, double min, double max) {
+			this.mean = mean;
+			this.sd = sd;
+			this.min = min;
+			this.max = max;
+			double l = (min - mean)/sd;
+			double h = (max - mean)/sd;
+			this.flip = h <= 0;
+			this.lo = this.flip ? -h : l;
+			this.hi = this.flip ? -l : h;
+			this.method = method(sd, min, max, this.lo, this.hi);
+		}
+
+		/*
+		 * Draws once without keeping a sampler around
+		 */
+		public static double draw(MersenneTwisterFast random, double mean, double sd, double min, double max) {
+			double l = (min - mean)/sd;
+			double h = (max - mean)/sd;
+			boolean flip = h <= 0;
+			double lo = flip ? -h : l;
+			double hi = flip ? -l : h;
+			return finish(standard(random, method(sd, min, max, lo, hi), lo, hi), flip, mean, sd, min, max);
+		}
+
+		public double next(MersenneTwisterFast random) {
+			return finish(standard(random, this.method, this.lo, this.hi), this.flip, this.mean, this.sd, this.min, this.max);
+		}
+
+		public void fill(MersenneTwisterFast random, double[] out) {
+			for(int i = 0; i < out.length; i++) {
+				out[i] = next(random);
+			}
+		}
+
+		/*
+		 * Picks the proposal for standardized bounds (where hi is above 0)
+		 */
+		private static int method(double sd, double min, double max, double lo, double hi) {
+			if(!(sd > 0) || !(min < max)) return FIXED;
+			if(lo <= 0) return hi - lo >= Math.sqrt(2*Math.PI) ? NORMAL : UNIFORM;
+			// Robert's comparison of the acceptance rates of the exponential and uniform proposals
+			double root = Math.sqrt(lo*lo + 4);
+			if(hi - lo > 2*Math.sqrt(Math.E)/(lo + root)*Math.exp((lo*lo - lo*root)/4)) return TAIL;
+			return UNIFORM;
+		}
+
+		/*
+		 * Draws from the standard normal between lo and hi
+		 */
+		private static double standard(MersenneTwisterFast random, int method, double lo, double hi) {
+			double z;
+			switch(method) {
+			case FIXED:
+				return 0;
+			case NORMAL:
+				do {
+					z = random.nextGaussian();
+				} while(z < lo || z > hi);
+				return z;
+			case UNIFORM:
+				// accept relative to the highest point of the density in the range
+				double peak = lo > 0 ? lo*lo : 0;
+				do {
+					z = lo + random.nextDouble()*(hi - lo);
+				} while(random.nextDouble() > Math.exp((peak - z*z)/2));
+				return z;
+			default:
+				// exponential starting at lo with the rate that's accepted most often
+				double alpha = (lo + Math.sqrt(lo*lo + 4))/2;
+				do {
+					z = lo - Math.log(random.nextDouble(false, true))/alpha;
+				} while(z > hi || random.nextDouble() > Math.exp(-(z - alpha)*(z - alpha)/2));
+				return z;
+			}
+		}
+
+		/*
+		 * Scales a standard draw back up (rounding can put it just outside the range, so it's clamped)
+		 */
+		private static double finish(double z, boolean flip, double mean, double sd, double min, double max) {
+			if(!(sd > 0) || !(min < max)) return Math.min(Math.max(mean, min), max);
+			double x = (flip ? -z : z)*sd + mean;
+			return Math.min(Math.max(x, min), max);
+		}
 	}
 }